@@ -0,0 +1,112 @@
+package com.spritehealth.filters;
+
+import com.google.gson.Gson;
+import com.spritehealth.utils.GsonProvider;
+import com.spritehealth.utils.SessionManager;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Authenticates API requests in one place.
+ * Resolves the session cookie once per request and stores the session data as the
+ * "principal" request attribute; requests without a valid session get a 401 before
+ * reaching any servlet. Paths listed in the publicPaths init parameter pass through
+ * without a session lookup.
+ */
+public class AuthenticationFilter implements Filter {
+    // Request attribute holding the session data (userId, userEmail, userName)
+    public static final String PRINCIPAL_ATTRIBUTE = "principal";
+    // Cookie carrying the session ID
+    public static final String SESSION_COOKIE = "USER_SESSION_ID";
+
+    // Session manager for authentication
+    private final SessionManager sessionManager = new SessionManager();
+    // Gson instance for JSON serialization
+    private final Gson gson = GsonProvider.getGson();
+    // Paths, relative to the context, that do not require a session
+    private final Set<String> publicPaths = new HashSet<>();
+
+    @Override
+    public void init(FilterConfig filterConfig) {
+        String paths = filterConfig.getInitParameter("publicPaths");
+        if (paths != null) {
+            for (String path : paths.split(",")) {
+                if (!path.trim().isEmpty()) {
+                    publicPaths.add(path.trim());
+                }
+            }
+        }
+    }
+
+    @Override
+    public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain chain)
+            throws IOException, ServletException {
+        HttpServletRequest request = (HttpServletRequest) servletRequest;
+        HttpServletResponse response = (HttpServletResponse) servletResponse;
+
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        if (publicPaths.contains(path)) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        if (getPrincipal(request, sessionManager) == null) {
+            Map<String, Object> result = new HashMap<>();
+            result.put("success", false);
+            result.put("message", "Unauthorized");
+            response.setContentType("application/json");
+            response.setCharacterEncoding("UTF-8");
+            response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+            response.getWriter().write(gson.toJson(result));
+            return;
+        }
+
+        chain.doFilter(request, response);
+    }
+
+    /**
+     * Returns the authenticated user's session data, looking the session up at most once per request.
+     * Public endpoints that still want to know who is calling, like the login status check, use this too.
+     *
+     * @param request        The current request.
+     * @param sessionManager Session manager used for the lookup if it has not happened yet.
+     * @return Session data, or null if the request carries no valid session.
+     */
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> getPrincipal(HttpServletRequest request, SessionManager sessionManager) {
+        if (request.getAttribute(PRINCIPAL_ATTRIBUTE) != null) {
+            return (Map<String, Object>) request.getAttribute(PRINCIPAL_ATTRIBUTE);
+        }
+
+        Cookie[] cookies = request.getCookies();
+        if (cookies != null) {
+            for (Cookie cookie : cookies) {
+                if (SESSION_COOKIE.equals(cookie.getName())) {
+                    Map<String, Object> sessionData = sessionManager.getSession(cookie.getValue());
+                    if (sessionData != null) {
+                        request.setAttribute(PRINCIPAL_ATTRIBUTE, sessionData);
+                    }
+                    return sessionData;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
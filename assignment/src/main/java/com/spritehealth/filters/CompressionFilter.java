@@ -0,0 +1,370 @@
+package com.spritehealth.filters;
+
+import com.spritehealth.utils.AsyncRequestExecutor;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses responses with gzip, or deflate for clients that only accept that, as negotiated
+ * through Accept-Encoding.
+ * Output is buffered up to the minSize init parameter; responses that end below it are sent as
+ * they are. Compression starts once the buffer fills or the servlet flushes, and every later
+ * flush is passed through, so incrementally written responses still reach the client as they
+ * are produced. Static .js and .css files with a .gz variant generated at build time are served
+ * from that variant instead of being compressed per request.
+ * For requests that went asynchronous, the body is finished by AsyncRequestExecutor when the
+ * worker is done rather than when the filter chain returns.
+ */
+public class CompressionFilter implements Filter {
+    // Content types worth compressing; images and archives are already compressed
+    private static final Set<String> COMPRESSIBLE_TYPES = Set.of(
+            "application/json", "application/javascript", "text/javascript", "text/css", "text/html", "text/plain");
+    // Content types of the static assets that have precompressed variants
+    private static final Map<String, String> PRECOMPRESSED_TYPES = Map.of(
+            ".js", "text/javascript", ".css", "text/css");
+
+    private ServletContext servletContext;
+    // Responses smaller than this many bytes are not compressed
+    private int minSize = 1024;
+
+    @Override
+    public void init(FilterConfig filterConfig) {
+        servletContext = filterConfig.getServletContext();
+        String size = filterConfig.getInitParameter("minSize");
+        if (size != null) {
+            minSize = Integer.parseInt(size.trim());
+        }
+    }
+
+    @Override
+    public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain chain)
+            throws IOException, ServletException {
+        HttpServletRequest request = (HttpServletRequest) servletRequest;
+        HttpServletResponse response = (HttpServletResponse) servletResponse;
+
+        // Caches must keep compressed and uncompressed variants apart
+        response.addHeader("Vary", "Accept-Encoding");
+
+        String encoding = negotiate(request.getHeader("Accept-Encoding"));
+        if (encoding == null || "HEAD".equals(request.getMethod())) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        if ("gzip".equals(encoding) && servePrecompressed(path, response)) {
+            return;
+        }
+
+        CompressingResponse compressing = new CompressingResponse(response, encoding, minSize);
+        // An asynchronous servlet writes after this method returns, so it finishes the body itself
+        request.setAttribute(AsyncRequestExecutor.RESPONSE_FINISHER_ATTRIBUTE, (Closeable) compressing::finish);
+        try {
+            chain.doFilter(request, compressing);
+        } finally {
+            if (!request.isAsyncStarted()) {
+                compressing.finish();
+            }
+        }
+    }
+
+    /**
+     * Picks the response encoding from an Accept-Encoding header.
+     * @param acceptEncoding Header value, possibly null
+     * @return "gzip", "deflate", or null to send the response uncompressed
+     */
+    static String negotiate(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        Map<String, Double> qualities = new HashMap<>();
+        for (String part : acceptEncoding.split(",")) {
+            String[] fields = part.trim().split(";");
+            double quality = 1.0;
+            for (int i = 1; i < fields.length; i++) {
+                String param = fields[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            qualities.put(fields[0].trim().toLowerCase(Locale.ROOT), quality);
+        }
+
+        double wildcard = qualities.getOrDefault("*", 0.0);
+        if (qualities.getOrDefault("gzip", wildcard) > 0) {
+            return "gzip";
+        }
+        if (qualities.getOrDefault("deflate", wildcard) > 0) {
+            return "deflate";
+        }
+        return null;
+    }
+
+    /**
+     * Serves the build-time .gz variant of a static asset if one exists.
+     * @return true if the response was written
+     */
+    private boolean servePrecompressed(String path, HttpServletResponse response) throws IOException {
+        int dot = path.lastIndexOf('.');
+        String contentType = dot >= 0 ? PRECOMPRESSED_TYPES.get(path.substring(dot)) : null;
+        if (contentType == null || path.contains("..")) {
+            return false;
+        }
+        URL variant = servletContext.getResource(path + ".gz");
+        if (variant == null) {
+            return false;
+        }
+
+        URLConnection connection = variant.openConnection();
+        response.setContentType(contentType);
+        response.setHeader("Content-Encoding", "gzip");
+        response.setContentLengthLong(connection.getContentLengthLong());
+        try (InputStream in = connection.getInputStream()) {
+            in.transferTo(response.getOutputStream());
+        }
+        return true;
+    }
+
+    /**
+     * Response wrapper that routes the body through a CompressingOutputStream and holds back
+     * the content length, which no longer applies once the body is compressed.
+     */
+    private static class CompressingResponse extends HttpServletResponseWrapper {
+        private final String encoding;
+        private final int minSize;
+        private CompressingOutputStream stream;
+        private PrintWriter writer;
+        private long contentLength = -1;
+        private boolean finished;
+
+        CompressingResponse(HttpServletResponse response, String encoding, int minSize) {
+            super(response);
+            this.encoding = encoding;
+            this.minSize = minSize;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (writer != null) {
+                throw new IllegalStateException("getWriter() has already been called");
+            }
+            return stream();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                if (stream != null) {
+                    throw new IllegalStateException("getOutputStream() has already been called");
+                }
+                writer = new PrintWriter(new OutputStreamWriter(stream(), getCharacterEncoding()));
+            }
+            return writer;
+        }
+
+        @Override
+        public void setContentLength(int length) {
+            contentLength = length;
+        }
+
+        @Override
+        public void setContentLengthLong(long length) {
+            contentLength = length;
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            if (writer != null) {
+                writer.flush();
+            } else if (stream != null) {
+                stream.flush();
+            }
+            super.flushBuffer();
+        }
+
+        @Override
+        public void resetBuffer() {
+            if (stream != null) {
+                stream.discard();
+            }
+            super.resetBuffer();
+        }
+
+        /**
+         * Completes the body: sends a small response as it is, or finishes the compressed stream.
+         * Only the first call has an effect.
+         */
+        synchronized void finish() throws IOException {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            if (writer != null) {
+                writer.close();
+            } else if (stream != null) {
+                stream.close();
+            } else if (contentLength >= 0) {
+                super.setContentLengthLong(contentLength);
+            }
+        }
+
+        private CompressingOutputStream stream() throws IOException {
+            if (stream == null) {
+                stream = new CompressingOutputStream(this, getResponse().getOutputStream());
+            }
+            return stream;
+        }
+
+        // Whether the body, as described by the headers set so far, should be compressed
+        private boolean shouldCompress() {
+            int status = getStatus();
+            if (status == SC_NO_CONTENT || status == SC_NOT_MODIFIED || containsHeader("Content-Encoding")) {
+                return false;
+            }
+            String contentType = getContentType();
+            if (contentType == null) {
+                return false;
+            }
+            int separator = contentType.indexOf(';');
+            String mimeType = (separator >= 0 ? contentType.substring(0, separator) : contentType).trim();
+            return COMPRESSIBLE_TYPES.contains(mimeType.toLowerCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * Buffers the start of the body until it is known whether to compress it, then writes
+     * through a gzip or deflate stream, or straight to the client.
+     */
+    private static class CompressingOutputStream extends ServletOutputStream {
+        private final CompressingResponse response;
+        private final ServletOutputStream raw;
+        // Start of the body, until the decision is made
+        private ByteArrayOutputStream buffer;
+        // Where bytes go once decided: the compressing stream or raw
+        private OutputStream target;
+        private boolean closed;
+
+        CompressingOutputStream(CompressingResponse response, ServletOutputStream raw) {
+            this.response = response;
+            this.raw = raw;
+            this.buffer = new ByteArrayOutputStream(Math.max(response.minSize, 32));
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (target != null) {
+                target.write(b);
+                return;
+            }
+            buffer.write(b);
+            if (buffer.size() >= response.minSize) {
+                start(true);
+            }
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (target != null) {
+                target.write(bytes, offset, length);
+                return;
+            }
+            buffer.write(bytes, offset, length);
+            if (buffer.size() >= response.minSize) {
+                start(true);
+            }
+        }
+
+        /**
+         * A flush means the servlet is streaming, so compression starts even below the threshold.
+         */
+        @Override
+        public void flush() throws IOException {
+            if (target == null) {
+                if (buffer.size() == 0) {
+                    return;
+                }
+                start(true);
+            }
+            target.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (target == null) {
+                // The whole body fit under the threshold
+                start(false);
+            }
+            target.close();
+        }
+
+        @Override
+        public boolean isReady() {
+            return raw.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            raw.setWriteListener(writeListener);
+        }
+
+        // Drops the buffered start of the body on a response reset
+        void discard() {
+            if (target == null) {
+                buffer.reset();
+            }
+        }
+
+        private void start(boolean compress) throws IOException {
+            if (compress && response.shouldCompress()) {
+                response.setHeader("Content-Encoding", response.encoding);
+                // Sync flush makes every flush emit the data written so far
+                target = "gzip".equals(response.encoding)
+                        ? new GZIPOutputStream(raw, 8192, true)
+                        : new DeflaterOutputStream(raw, true);
+            } else {
+                if (!compress) {
+                    response.getResponse().setContentLength(buffer.size());
+                } else if (response.contentLength >= 0) {
+                    response.getResponse().setContentLengthLong(response.contentLength);
+                }
+                target = raw;
+            }
+            buffer.writeTo(target);
+            buffer = null;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.spritehealth.filters;
+
+import com.google.gson.Gson;
+import com.spritehealth.utils.GsonProvider;
+import com.spritehealth.utils.SessionManager;
+import com.spritehealth.utils.TokenBucketLimiter;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits how often each caller may hit expensive endpoints, with one token bucket per caller
+ * and endpoint class. Callers are identified by the session user ID, or by client address on
+ * public endpoints called without a session. Requests over the limit get a 429 with
+ * Retry-After before reaching the servlet.
+ * Endpoint classes are named in the endpointClasses init parameter; each class then has
+ * &lt;name&gt;.paths (exact paths, or prefixes ending in /*), optional &lt;name&gt;.methods,
+ * &lt;name&gt;.capacity (largest burst) and &lt;name&gt;.perMinute (sustained rate). The first
+ * matching class applies.
+ */
+public class RateLimitFilter implements Filter {
+    // Session manager, for requests the authentication filter has not resolved
+    private final SessionManager sessionManager = new SessionManager();
+    // Gson instance for JSON serialization
+    private final Gson gson = GsonProvider.getGson();
+    // Configured endpoint classes, in match order
+    private final List<EndpointClass> endpointClasses = new ArrayList<>();
+
+    /**
+     * A group of endpoints that share one limit.
+     */
+    private static class EndpointClass {
+        private final String name;
+        private final List<String> paths = new ArrayList<>();
+        // Methods limited, or empty for all
+        private final Set<String> methods = new HashSet<>();
+        private final TokenBucketLimiter limiter;
+
+        EndpointClass(String name, TokenBucketLimiter limiter) {
+            this.name = name;
+            this.limiter = limiter;
+        }
+
+        boolean matches(String method, String path) {
+            if (!methods.isEmpty() && !methods.contains(method)) {
+                return false;
+            }
+            for (String pattern : paths) {
+                if (pattern.endsWith("/*")
+                        ? path.startsWith(pattern.substring(0, pattern.length() - 1))
+                        : path.equals(pattern)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+        String names = filterConfig.getInitParameter("endpointClasses");
+        if (names == null) {
+            return;
+        }
+        for (String name : split(names)) {
+            String capacity = filterConfig.getInitParameter(name + ".capacity");
+            String perMinute = filterConfig.getInitParameter(name + ".perMinute");
+            String paths = filterConfig.getInitParameter(name + ".paths");
+            if (capacity == null || perMinute == null || paths == null) {
+                throw new ServletException("Rate limit class " + name + " needs paths, capacity and perMinute");
+            }
+
+            EndpointClass endpointClass = new EndpointClass(name, new TokenBucketLimiter(
+                    Integer.parseInt(capacity.trim()), Double.parseDouble(perMinute.trim())));
+            endpointClass.paths.addAll(split(paths));
+            String methods = filterConfig.getInitParameter(name + ".methods");
+            if (methods != null) {
+                for (String method : split(methods)) {
+                    endpointClass.methods.add(method.toUpperCase(Locale.ROOT));
+                }
+            }
+            endpointClasses.add(endpointClass);
+            System.out.println("Rate limiting " + name + " " + endpointClass.paths
+                    + " to " + capacity.trim() + " burst, " + perMinute.trim() + "/min");
+        }
+    }
+
+    @Override
+    public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain chain)
+            throws IOException, ServletException {
+        HttpServletRequest request = (HttpServletRequest) servletRequest;
+        HttpServletResponse response = (HttpServletResponse) servletResponse;
+
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        EndpointClass endpointClass = match(request.getMethod(), path);
+        if (endpointClass == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        long waitNanos = endpointClass.limiter.tryAcquire(callerKey(request));
+        if (waitNanos > 0) {
+            // Whole seconds, rounded up so a retry at that time finds a token
+            long retryAfter = Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+            Map<String, Object> result = new HashMap<>();
+            result.put("success", false);
+            result.put("message", "Too many " + endpointClass.name + " requests, retry in " + retryAfter + "s");
+            response.setContentType("application/json");
+            response.setCharacterEncoding("UTF-8");
+            response.setStatus(429);
+            response.setHeader("Retry-After", String.valueOf(retryAfter));
+            response.getWriter().write(gson.toJson(result));
+            return;
+        }
+
+        chain.doFilter(request, response);
+    }
+
+    private EndpointClass match(String method, String path) {
+        for (EndpointClass endpointClass : endpointClasses) {
+            if (endpointClass.matches(method, path)) {
+                return endpointClass;
+            }
+        }
+        return null;
+    }
+
+    // Session user ID when there is a session, client address otherwise
+    private String callerKey(HttpServletRequest request) {
+        Map<String, Object> principal = AuthenticationFilter.getPrincipal(request, sessionManager);
+        if (principal != null && principal.get("userId") != null) {
+            return "user:" + principal.get("userId");
+        }
+        return "addr:" + request.getRemoteAddr();
+    }
+
+    private static List<String> split(String value) {
+        List<String> parts = new ArrayList<>();
+        for (String part : value.split(",")) {
+            if (!part.trim().isEmpty()) {
+                parts.add(part.trim());
+            }
+        }
+        return parts;
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
@@ -0,0 +1,22 @@
+package com.spritehealth.listeners;
+
+import com.spritehealth.utils.AsyncRequestExecutor;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+/**
+ * Starts the I/O pool for asynchronous servlets with the application and stops it on shutdown.
+ */
+public class AsyncRequestExecutorListener implements ServletContextListener {
+
+    @Override
+    public void contextInitialized(ServletContextEvent event) {
+        AsyncRequestExecutor.getInstance();
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent event) {
+        AsyncRequestExecutor.getInstance().shutdown();
+    }
+}
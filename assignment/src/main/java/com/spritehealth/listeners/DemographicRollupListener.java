@@ -0,0 +1,53 @@
+package com.spritehealth.listeners;
+
+import com.spritehealth.services.impl.CloudDatastoreServiceImpl;
+import com.spritehealth.services.interfaces.IUserDatastoreService;
+import com.spritehealth.utils.DemographicRollup;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the live demographic rollup in the background at startup and rebuilds it on a fixed
+ * schedule, so analytics requests only ever read the counts and never scan Datastore.
+ * Each rebuild also corrects drift from writes made on other instances and from birthdays.
+ */
+public class DemographicRollupListener implements ServletContextListener {
+    // Time between full rebuilds
+    private static final long REBUILD_MILLIS =
+            Long.parseLong(System.getenv().getOrDefault("ANALYTICS_ROLLUP_REBUILD_MINUTES", "10")) * 60 * 1000;
+
+    private ScheduledExecutorService scheduler;
+
+    @Override
+    public void contextInitialized(ServletContextEvent event) {
+        IUserDatastoreService datastoreService = new CloudDatastoreServiceImpl();
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "demographic-rollup");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> rebuild(datastoreService), 0, REBUILD_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent event) {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private static void rebuild(IUserDatastoreService datastoreService) {
+        try {
+            long start = System.currentTimeMillis();
+            DemographicRollup.getInstance().rebuild(datastoreService.iterateUsersUpdatedSince(0));
+            System.out.println("Demographic rollup rebuilt in " + (System.currentTimeMillis() - start) + " ms");
+        } catch (Exception e) {
+            // The previous counts stay in place until the next run
+            System.err.println("Error rebuilding demographic rollup: " + e.getMessage());
+        }
+    }
+}
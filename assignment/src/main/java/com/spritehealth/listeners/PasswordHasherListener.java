@@ -0,0 +1,23 @@
+package com.spritehealth.listeners;
+
+import com.spritehealth.utils.PasswordHasher;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+/**
+ * Calibrates password hashing with the application, so the first login does not pay for it,
+ * and stops the verification pool on shutdown.
+ */
+public class PasswordHasherListener implements ServletContextListener {
+
+    @Override
+    public void contextInitialized(ServletContextEvent event) {
+        PasswordHasher.getInstance();
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent event) {
+        PasswordHasher.getInstance().shutdown();
+    }
+}
@@ -0,0 +1,32 @@
+package com.spritehealth.listeners;
+
+import com.spritehealth.utils.SessionSweeper;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+/**
+ * Starts the expired-session sweeper with the application and stops it on shutdown.
+ */
+public class SessionSweeperListener implements ServletContextListener {
+    // Sweeper owned by this application instance
+    private SessionSweeper sweeper;
+
+    @Override
+    public void contextInitialized(ServletContextEvent event) {
+        try {
+            sweeper = new SessionSweeper();
+            sweeper.start();
+        } catch (Exception e) {
+            // Sessions are still removed lazily when read
+            System.err.println("Error starting session sweeper: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent event) {
+        if (sweeper != null) {
+            sweeper.stop();
+        }
+    }
+}
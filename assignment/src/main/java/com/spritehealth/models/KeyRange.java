@@ -0,0 +1,97 @@
+package com.spritehealth.models;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A half-open range [start, end) of user IDs with the row count and order-independent
+ * checksum (XOR of row fingerprints) computed over it on one side of a reconciliation.
+ */
+public class KeyRange {
+    private long start;
+    private long end;
+    private long count;
+    private long checksum;
+
+    public KeyRange() {
+    }
+
+    public KeyRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Folds one row fingerprint into the count and checksum.
+     * @param fingerprint Row fingerprint
+     */
+    public void add(long fingerprint) {
+        count++;
+        checksum ^= fingerprint;
+    }
+
+    /**
+     * Checks whether both sides hold the same rows for this range.
+     * @param other Checksum of the same range on the other side
+     * @return true if counts and checksums are equal
+     */
+    public boolean matches(KeyRange other) {
+        return other != null && count == other.count && checksum == other.checksum;
+    }
+
+    /**
+     * Splits the range into equal-width, empty sub-ranges.
+     * @param parts Number of sub-ranges wanted; fewer are returned if the range is narrower
+     * @return Contiguous sub-ranges covering this range
+     */
+    public List<KeyRange> split(int parts) {
+        List<KeyRange> ranges = new ArrayList<>();
+        long width = Math.max(1, (end - start) / parts);
+        long from = start;
+        while (from < end) {
+            // The last sub-range absorbs the remainder of the division
+            long to = ranges.size() == parts - 1 || end - from <= width ? end : from + width;
+            ranges.add(new KeyRange(from, to));
+            from = to;
+        }
+        return ranges;
+    }
+
+    // Getters and Setters
+    public long getStart() {
+        return start;
+    }
+
+    public void setStart(long start) {
+        this.start = start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public void setEnd(long end) {
+        this.end = end;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public void setCount(long count) {
+        this.count = count;
+    }
+
+    public long getChecksum() {
+        return checksum;
+    }
+
+    public void setChecksum(long checksum) {
+        this.checksum = checksum;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + start + ", " + end + ")";
+    }
+}
@@ -0,0 +1,233 @@
+package com.spritehealth.models;
+
+import com.google.cloud.datastore.Entity;
+import com.google.cloud.datastore.Key;
+import com.google.cloud.datastore.StringValue;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * A background job against a BigQuery table and its checkpoint.
+ * Migrations persist their checkpoint (query cursor and counters) after every chunk,
+ * so a job interrupted by an instance restart can be resumed where it stopped.
+ * Verification and export jobs only refresh their heartbeat while running and are rerun
+ * from the start if interrupted; their outcome is kept in result.
+ */
+public class MigrationJob {
+    public static final String STATUS_RUNNING = "RUNNING";
+    public static final String STATUS_COMPLETED = "COMPLETED";
+    public static final String STATUS_FAILED = "FAILED";
+    public static final String STATUS_CANCELLED = "CANCELLED";
+
+    public static final String TYPE_MIGRATE = "MIGRATE";
+    public static final String TYPE_VERIFY = "VERIFY";
+    public static final String TYPE_EXPORT = "EXPORT";
+
+    private String id;
+    private String tableName;
+    // What the job does; jobs stored before types existed are migrations
+    private String type = TYPE_MIGRATE;
+    // Type-specific option, e.g. "repair" for a verification or the format of an export
+    private String options;
+    private String status;
+    // updatedAt watermark the job started from; fixed for the whole run so the cursor stays valid
+    private long startWatermark;
+    // Datastore cursor after the last shipped chunk, empty before the first chunk
+    private String cursor;
+    // Highest updatedAt shipped so far
+    private long maxUpdatedAt;
+    private long migrated;
+    private long failed;
+    private boolean cancelRequested;
+    private long createdAt;
+    // Refreshed on every checkpoint; a stale heartbeat marks a job orphaned by a restart
+    private long heartbeatAt;
+    private long finishedAt;
+    private String message;
+    // Outcome details reported by a finished verification or export
+    private JsonObject result;
+
+    public MigrationJob() {
+    }
+
+    // Convert Datastore Entity to MigrationJob
+    public static MigrationJob fromEntity(Entity entity) {
+        MigrationJob job = new MigrationJob();
+        job.setId(entity.getKey().getName());
+        job.setTableName(entity.getString("tableName"));
+        job.setStatus(entity.getString("status"));
+        job.setStartWatermark(entity.getLong("startWatermark"));
+        job.setCursor(entity.getString("cursor"));
+        job.setMaxUpdatedAt(entity.getLong("maxUpdatedAt"));
+        job.setMigrated(entity.getLong("migrated"));
+        job.setFailed(entity.getLong("failed"));
+        job.setCancelRequested(entity.getBoolean("cancelRequested"));
+        job.setCreatedAt(entity.getLong("createdAt"));
+        job.setHeartbeatAt(entity.getLong("heartbeatAt"));
+        job.setFinishedAt(entity.getLong("finishedAt"));
+        job.setMessage(entity.getString("message"));
+        if (entity.contains("type")) {
+            job.setType(entity.getString("type"));
+            job.setOptions(entity.getString("options"));
+        }
+        if (entity.contains("result") && !entity.getString("result").isEmpty()) {
+            job.setResult(JsonParser.parseString(entity.getString("result")).getAsJsonObject());
+        }
+        return job;
+    }
+
+    // Convert MigrationJob to Datastore Entity Builder
+    public Entity.Builder toEntityBuilder(Key key) {
+        return Entity.newBuilder(key)
+            .set("tableName", this.tableName != null ? this.tableName : "")
+            .set("type", this.type != null ? this.type : TYPE_MIGRATE)
+            .set("options", this.options != null ? this.options : "")
+            .set("status", this.status != null ? this.status : "")
+            .set("startWatermark", this.startWatermark)
+            .set("cursor", this.cursor != null ? this.cursor : "")
+            .set("maxUpdatedAt", this.maxUpdatedAt)
+            .set("migrated", this.migrated)
+            .set("failed", this.failed)
+            .set("cancelRequested", this.cancelRequested)
+            .set("createdAt", this.createdAt)
+            .set("heartbeatAt", this.heartbeatAt)
+            .set("finishedAt", this.finishedAt)
+            .set("message", this.message != null ? this.message : "")
+            // Unindexed, so results may exceed the indexed string limit
+            .set("result", StringValue.newBuilder(this.result != null ? this.result.toString() : "")
+                    .setExcludeFromIndexes(true).build());
+    }
+
+    public boolean isRunning() {
+        return STATUS_RUNNING.equals(status);
+    }
+
+    // Getters and Setters
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public void setTableName(String tableName) {
+        this.tableName = tableName;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getOptions() {
+        return options;
+    }
+
+    public void setOptions(String options) {
+        this.options = options;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public long getStartWatermark() {
+        return startWatermark;
+    }
+
+    public void setStartWatermark(long startWatermark) {
+        this.startWatermark = startWatermark;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
+    public long getMaxUpdatedAt() {
+        return maxUpdatedAt;
+    }
+
+    public void setMaxUpdatedAt(long maxUpdatedAt) {
+        this.maxUpdatedAt = maxUpdatedAt;
+    }
+
+    public long getMigrated() {
+        return migrated;
+    }
+
+    public void setMigrated(long migrated) {
+        this.migrated = migrated;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    public void setFailed(long failed) {
+        this.failed = failed;
+    }
+
+    public boolean isCancelRequested() {
+        return cancelRequested;
+    }
+
+    public void setCancelRequested(boolean cancelRequested) {
+        this.cancelRequested = cancelRequested;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(long createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public long getHeartbeatAt() {
+        return heartbeatAt;
+    }
+
+    public void setHeartbeatAt(long heartbeatAt) {
+        this.heartbeatAt = heartbeatAt;
+    }
+
+    public long getFinishedAt() {
+        return finishedAt;
+    }
+
+    public void setFinishedAt(long finishedAt) {
+        this.finishedAt = finishedAt;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    public JsonObject getResult() {
+        return result;
+    }
+
+    public void setResult(JsonObject result) {
+        this.result = result;
+    }
+}
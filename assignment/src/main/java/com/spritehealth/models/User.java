@@ -2,6 +2,7 @@ package com.spritehealth.models;
 
 import com.google.cloud.datastore.Entity;
 import com.google.cloud.datastore.Key;
+import com.google.cloud.datastore.ProjectionEntity;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 
@@ -14,6 +15,7 @@ public class User {
     private String phone;
     private String gender;
     private String address;
+    private long updatedAt;
 
     public User() {
     }
@@ -45,19 +47,47 @@ public class User {
         user.setPhone(entity.getString("phone"));
         user.setGender(entity.getString("gender"));
         user.setAddress(entity.getString("address"));
+        // Entities written before change tracking have no updatedAt property
+        if (entity.contains("updatedAt")) {
+            user.setUpdatedAt(entity.getLong("updatedAt"));
+        }
         
         return user;
     }
 
-    // Convert User to Datastore Entity Builder
+    // Convert the result of a projection query to User; properties not projected stay null
+    public static User fromProjection(ProjectionEntity entity) {
+        User user = new User();
+        user.setId(entity.getKey().getId());
+        user.setName(projected(entity, "name"));
+        user.setEmail(projected(entity, "email"));
+        user.setPhone(projected(entity, "phone"));
+        user.setGender(projected(entity, "gender"));
+        user.setAddress(projected(entity, "address"));
+        
+        String dobString = projected(entity, "dateOfBirth");
+        if (dobString != null && !dobString.isEmpty()) {
+            user.setDateOfBirth(LocalDate.parse(dobString, DateTimeFormatter.ISO_LOCAL_DATE));
+        }
+        
+        return user;
+    }
+
+    private static String projected(ProjectionEntity entity, String property) {
+        return entity.contains(property) ? entity.getString(property) : null;
+    }
+
+    // Convert User to Datastore Entity Builder, stamping the modification time
     public Entity.Builder toEntityBuilder(Key key) {
+        this.updatedAt = System.currentTimeMillis();
         Entity.Builder builder = Entity.newBuilder(key)
             .set("name", this.name != null ? this.name : "")
             .set("email", this.email != null ? this.email : "")
             .set("password", this.password != null ? this.password : "")
             .set("phone", this.phone != null ? this.phone : "")
             .set("gender", this.gender != null ? this.gender : "")
-            .set("address", this.address != null ? this.address : "");
+            .set("address", this.address != null ? this.address : "")
+            .set("updatedAt", this.updatedAt);
         
         if (this.dateOfBirth != null) {
             builder.set("dateOfBirth", this.dateOfBirth.format(DateTimeFormatter.ISO_LOCAL_DATE));
@@ -133,6 +163,14 @@ public class User {
         this.address = address;
     }
 
+    public long getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(long updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
     @Override
     public String toString() {
         return "User{" +
@@ -0,0 +1,47 @@
+package com.spritehealth.models;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * One operation of a batch request: create a user from fields, merge fields into a user,
+ * or delete a user.
+ */
+public class UserOperation {
+    public enum Type { CREATE, UPDATE, DELETE }
+
+    // Null if the request named an unknown operation
+    private Type type;
+    // Target user of an update or delete
+    private Long id;
+    // User fields of a create, or the merge patch of an update; null clears a field
+    private final Map<String, String> fields = new LinkedHashMap<>();
+    // Fields of the request that cannot be set; the operation is rejected if any are present
+    private final Set<String> unknownFields = new LinkedHashSet<>();
+
+    public Type getType() {
+        return type;
+    }
+
+    public void setType(Type type) {
+        this.type = type;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Map<String, String> getFields() {
+        return fields;
+    }
+
+    public Set<String> getUnknownFields() {
+        return unknownFields;
+    }
+}
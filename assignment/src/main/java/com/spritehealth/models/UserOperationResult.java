@@ -0,0 +1,33 @@
+package com.spritehealth.models;
+
+/**
+ * Outcome of one operation of a batch request, with an HTTP-style status.
+ */
+public class UserOperationResult {
+    private final int status;
+    private final String message;
+    // Created or updated user; null for deletes and failures
+    private final User user;
+
+    public UserOperationResult(int status, String message, User user) {
+        this.status = status;
+        this.message = message;
+        this.user = user;
+    }
+
+    public boolean isSuccess() {
+        return status < 300;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public User getUser() {
+        return user;
+    }
+}
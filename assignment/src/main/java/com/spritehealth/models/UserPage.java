@@ -0,0 +1,27 @@
+package com.spritehealth.models;
+
+import java.util.List;
+
+/**
+ * One page of users read from Datastore together with the cursor to continue from.
+ */
+public class UserPage {
+    private final List<User> users;
+    private final String nextCursor;
+
+    public UserPage(List<User> users, String nextCursor) {
+        this.users = users;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<User> getUsers() {
+        return users;
+    }
+
+    /**
+     * @return URL-safe Datastore cursor positioned after the last user of this page
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+}
@@ -0,0 +1,28 @@
+package com.spritehealth.models;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Body of a JSON merge patch on a user: the fields present are changed, a null value clears
+ * the field, and absent fields are left as they are.
+ */
+public class UserPatch {
+    // Fields a patch may change
+    public static final Set<String> PATCHABLE_FIELDS =
+            Set.of("name", "email", "password", "phone", "gender", "address", "dateOfBirth");
+    // Fields that cannot be cleared
+    public static final Set<String> REQUIRED_FIELDS = Set.of("name", "email", "password");
+
+    // New value per changed field; null clears the field
+    private final Map<String, String> changes = new LinkedHashMap<>();
+
+    public void set(String field, String value) {
+        changes.put(field, value);
+    }
+
+    public Map<String, String> getChanges() {
+        return changes;
+    }
+}
@@ -0,0 +1,114 @@
+package com.spritehealth.models;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Set;
+
+/**
+ * Filter, ordering and paging options for reading migrated users from BigQuery.
+ * Every filter is optional; values are bound as query parameters, never concatenated into SQL.
+ */
+public class UserQuery {
+    // Columns callers may order by; anything else is rejected
+    public static final Set<String> ORDERABLE_FIELDS =
+            Set.of("id", "name", "email", "dateOfBirth", "migratedAt");
+    public static final int DEFAULT_PAGE_SIZE = 100;
+    public static final int MAX_PAGE_SIZE = 10000;
+
+    private String email;
+    private String gender;
+    private String nameContains;
+    private LocalDate bornAfter;
+    private LocalDate bornBefore;
+    private Instant migratedAfter;
+    private String orderBy = "id";
+    private boolean descending;
+    private int pageSize = DEFAULT_PAGE_SIZE;
+    private String pageToken;
+
+    public String getEmail() {
+        return email;
+    }
+
+    public void setEmail(String email) {
+        this.email = email;
+    }
+
+    public String getGender() {
+        return gender;
+    }
+
+    public void setGender(String gender) {
+        this.gender = gender;
+    }
+
+    public String getNameContains() {
+        return nameContains;
+    }
+
+    public void setNameContains(String nameContains) {
+        this.nameContains = nameContains;
+    }
+
+    public LocalDate getBornAfter() {
+        return bornAfter;
+    }
+
+    public void setBornAfter(LocalDate bornAfter) {
+        this.bornAfter = bornAfter;
+    }
+
+    public LocalDate getBornBefore() {
+        return bornBefore;
+    }
+
+    public void setBornBefore(LocalDate bornBefore) {
+        this.bornBefore = bornBefore;
+    }
+
+    public Instant getMigratedAfter() {
+        return migratedAfter;
+    }
+
+    public void setMigratedAfter(Instant migratedAfter) {
+        this.migratedAfter = migratedAfter;
+    }
+
+    public String getOrderBy() {
+        return orderBy;
+    }
+
+    public void setOrderBy(String orderBy) {
+        if (!ORDERABLE_FIELDS.contains(orderBy)) {
+            throw new IllegalArgumentException("Cannot order by: " + orderBy);
+        }
+        this.orderBy = orderBy;
+    }
+
+    public boolean isDescending() {
+        return descending;
+    }
+
+    public void setDescending(boolean descending) {
+        this.descending = descending;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public void setPageSize(int pageSize) {
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("pageSize must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        this.pageSize = pageSize;
+    }
+
+    public String getPageToken() {
+        return pageToken;
+    }
+
+    public void setPageToken(String pageToken) {
+        this.pageToken = pageToken;
+    }
+}
@@ -0,0 +1,30 @@
+package com.spritehealth.models;
+
+import java.util.Set;
+
+/**
+ * Public view of a user for API responses: every profile field except the password,
+ * or only the ID and a selected subset of fields.
+ */
+public class UserView {
+    private final User user;
+    // Fields to include besides the ID; null for all
+    private final Set<String> fields;
+
+    public UserView(User user) {
+        this(user, null);
+    }
+
+    public UserView(User user, Set<String> fields) {
+        this.user = user;
+        this.fields = fields;
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public Set<String> getFields() {
+        return fields;
+    }
+}
@@ -0,0 +1,116 @@
+package com.spritehealth.services.impl;
+
+import com.spritehealth.models.User;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.DateDayVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorLoader;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.ipc.ReadChannel;
+import org.apache.arrow.vector.ipc.message.ArrowRecordBatch;
+import org.apache.arrow.vector.ipc.message.MessageSerializer;
+import org.apache.arrow.vector.types.pojo.Schema;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.function.Consumer;
+
+/**
+ * Decodes serialized Arrow record batches of the user table straight into User objects.
+ * Works on raw Arrow IPC bytes only, so it can be exercised offline with canned batches.
+ * One decoder reuses a single set of column vectors and is not thread-safe; use one per read stream.
+ */
+public class ArrowUserDecoder implements AutoCloseable {
+    // Off-heap memory for the column vectors of this decoder
+    private final BufferAllocator allocator;
+    // Column vectors every batch is loaded into
+    private final VectorSchemaRoot root;
+    private final VectorLoader loader;
+
+    /**
+     * @param serializedSchema Arrow IPC schema message, as returned by ArrowSchema.getSerializedSchema()
+     * @throws IOException if the schema cannot be read
+     */
+    public ArrowUserDecoder(InputStream serializedSchema) throws IOException {
+        this.allocator = new RootAllocator(Long.MAX_VALUE);
+        Schema schema = MessageSerializer.deserializeSchema(
+                new ReadChannel(Channels.newChannel(serializedSchema)));
+        this.root = VectorSchemaRoot.create(schema, allocator);
+        this.loader = new VectorLoader(root);
+    }
+
+    /**
+     * Decodes one record batch and emits a User per row.
+     * Columns missing from the schema are left unset on the User.
+     * @param serializedBatch Arrow IPC record batch message
+     * @param consumer Receives each decoded user
+     * @return Number of rows decoded
+     * @throws IOException if the batch cannot be read
+     */
+    public int decode(InputStream serializedBatch, Consumer<User> consumer) throws IOException {
+        try (ArrowRecordBatch batch = MessageSerializer.deserializeRecordBatch(
+                new ReadChannel(Channels.newChannel(serializedBatch)), allocator)) {
+            loader.load(batch);
+        }
+
+        // Resolve column vectors once per batch rather than once per cell
+        BigIntVector id = (BigIntVector) vector("id");
+        VarCharVector name = (VarCharVector) vector("name");
+        DateDayVector dateOfBirth = (DateDayVector) vector("dateOfBirth");
+        VarCharVector email = (VarCharVector) vector("email");
+        VarCharVector phone = (VarCharVector) vector("phone");
+        VarCharVector gender = (VarCharVector) vector("gender");
+        VarCharVector address = (VarCharVector) vector("address");
+
+        int rowCount = root.getRowCount();
+        for (int i = 0; i < rowCount; i++) {
+            User user = new User();
+            if (id != null && !id.isNull(i)) {
+                user.setId(id.get(i));
+            }
+            user.setName(string(name, i));
+            if (dateOfBirth != null && !dateOfBirth.isNull(i)) {
+                user.setDateOfBirth(LocalDate.ofEpochDay(dateOfBirth.get(i)));
+            }
+            user.setEmail(string(email, i));
+            user.setPhone(string(phone, i));
+            user.setGender(string(gender, i));
+            user.setAddress(string(address, i));
+            consumer.accept(user);
+        }
+        return rowCount;
+    }
+
+    /**
+     * Looks up a column vector by name.
+     * @return The vector, or null if the column was not selected
+     */
+    private FieldVector vector(String column) {
+        return root.getVector(column);
+    }
+
+    /**
+     * Reads a UTF-8 cell without going through Arrow's Text wrapper.
+     */
+    private static String string(VarCharVector vector, int index) {
+        if (vector == null || vector.isNull(index)) {
+            return null;
+        }
+        return new String(vector.get(index), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Releases the column vectors and their off-heap memory.
+     */
+    @Override
+    public void close() {
+        root.close();
+        allocator.close();
+    }
+}
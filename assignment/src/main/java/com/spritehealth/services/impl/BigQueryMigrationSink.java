@@ -0,0 +1,36 @@
+package com.spritehealth.services.impl;
+
+import com.spritehealth.models.User;
+import com.spritehealth.services.interfaces.IBigQueryService;
+import com.spritehealth.services.interfaces.IMigrationSink;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Sink that streams users into the BigQuery user table.
+ */
+public class BigQueryMigrationSink implements IMigrationSink {
+    public static final String NAME = "bigquery";
+
+    private final IBigQueryService bigQueryService;
+
+    /**
+     * @param bigQueryService Service owning the destination table
+     */
+    public BigQueryMigrationSink(IBigQueryService bigQueryService) {
+        this.bigQueryService = bigQueryService;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public Map<String, Object> write(Iterator<User> users) {
+        Map<String, Object> result = bigQueryService.migrateUsers(users);
+        result.put("table", bigQueryService.getTableName());
+        return result;
+    }
+}
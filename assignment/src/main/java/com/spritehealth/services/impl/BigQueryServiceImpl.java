@@ -1,14 +1,41 @@
 package com.spritehealth.services.impl;
 
 import com.google.cloud.bigquery.*;
+import com.google.cloud.bigquery.storage.v1.BigQueryReadClient;
+import com.google.cloud.bigquery.storage.v1.CreateReadSessionRequest;
+import com.google.cloud.bigquery.storage.v1.DataFormat;
+import com.google.cloud.bigquery.storage.v1.ReadRowsRequest;
+import com.google.cloud.bigquery.storage.v1.ReadRowsResponse;
+import com.google.cloud.bigquery.storage.v1.ReadSession;
+import com.google.cloud.bigquery.storage.v1.ReadStream;
+import com.google.protobuf.ByteString;
+import com.spritehealth.models.KeyRange;
 import com.spritehealth.models.User;
+import com.spritehealth.models.UserQuery;
 import com.spritehealth.services.interfaces.IBigQueryService;
+import com.spritehealth.utils.DemographicRollup;
+import com.spritehealth.utils.TtlCache;
+import com.spritehealth.utils.UserChecksum;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 /**
  * BigQuery implementation for data analytics and migration.
@@ -24,6 +51,25 @@ public class BigQueryServiceImpl implements IBigQueryService {
     // BigQuery table name
     private final String tableName;
 
+    // Rows per streaming insert request
+    private static final int INSERT_BATCH_SIZE = 500;
+    // Capacity of each migration pipeline hand-off queue
+    private static final int PIPELINE_QUEUE_CAPACITY = 1000;
+    // Threads mapping users to rows
+    private static final int TRANSFORM_WORKERS = 2;
+    // Threads issuing insertAll requests
+    private static final int SINK_WORKERS = 4;
+
+    // Dataset and table metadata rarely change; shared by every service instance in the JVM
+    private static final TtlCache<DatasetId, Dataset> DATASET_CACHE = new TtlCache<>(10 * 60 * 1000, 16);
+    private static final TtlCache<TableId, Table> TABLE_CACHE = new TtlCache<>(10 * 60 * 1000, 16);
+    // First pages of query results keyed by normalized SQL, parameters and page size.
+    // Cleared whenever this instance writes to BigQuery; the TTL bounds staleness from other instances.
+    private static final TtlCache<String, CachedPage> QUERY_CACHE = new TtlCache<>(
+            Long.parseLong(System.getenv().getOrDefault("BIGQUERY_CACHE_TTL_SECONDS", "300")) * 1000, 200);
+    // Contents of the small demographic rollup tables, keyed by rollup table name
+    private static final TtlCache<String, Map<String, Object>> ROLLUP_CACHE = new TtlCache<>(5 * 60 * 1000, 16);
+
     /**
      * Default constructor.
      * Initializes BigQuery client and reads configuration from environment variables.
@@ -54,6 +100,9 @@ public class BigQueryServiceImpl implements IBigQueryService {
     @Override
     public void createDatasetIfNotExists() {
         DatasetId datasetId = DatasetId.of(projectId, datasetName);
+        if (DATASET_CACHE.get(datasetId) != null) {
+            return;
+        }
         Dataset dataset = bigQuery.getDataset(datasetId);
 
         // Create dataset if not present
@@ -62,151 +111,779 @@ public class BigQueryServiceImpl implements IBigQueryService {
                     .setDescription("User data storage")
                     .setLocation("US")
                     .build();
-            bigQuery.create(datasetInfo);
+            dataset = bigQuery.create(datasetInfo);
         }
+        DATASET_CACHE.put(datasetId, dataset);
     }
 
     /**
      * Creates the user table with the required schema if it does not exist.
+     * The table is partitioned by day on migratedAt and clustered on email and gender,
+     * so time-bounded analytics and email lookups only scan the blocks they need.
+     * A table still in the legacy all-STRING, unpartitioned layout is backfilled into the new one,
+     * and a partitioned table created before rows carried updatedAt gets that column added.
      */
     @Override
     public void createTableIfNotExists() {
         TableId tableId = TableId.of(projectId, datasetName, tableName);
-        Table table = bigQuery.getTable(tableId);
+        Table table = getTableMetadata(tableId);
 
         // Create table if not present
         if (table == null) {
-            Schema schema = Schema.of(
-                    Field.of("id", StandardSQLTypeName.INT64),
-                    Field.of("name", StandardSQLTypeName.STRING),
-                    Field.of("dateOfBirth", StandardSQLTypeName.STRING),
-                    Field.of("email", StandardSQLTypeName.STRING),
-                    Field.of("password", StandardSQLTypeName.STRING),
-                    Field.of("phone", StandardSQLTypeName.STRING),
-                    Field.of("gender", StandardSQLTypeName.STRING),
-                    Field.of("address", StandardSQLTypeName.STRING)
-            );
+            TABLE_CACHE.put(tableId, bigQuery.create(TableInfo.newBuilder(tableId, buildTableDefinition()).build()));
+        } else if (isLegacyLayout(table)) {
+            backfillLegacyTable(tableId);
+            TABLE_CACHE.invalidate(tableId);
+            QUERY_CACHE.clear();
+        } else if (table.getDefinition().getSchema().getFields().stream()
+                .noneMatch(field -> "updatedAt".equals(field.getName()))) {
+            addUpdatedAtColumn(table);
+            TABLE_CACHE.invalidate(tableId);
+        }
+    }
 
-            TableDefinition tableDefinition = StandardTableDefinition.of(schema);
-            TableInfo tableInfo = TableInfo.newBuilder(tableId, tableDefinition).build();
-            bigQuery.create(tableInfo);
+    /**
+     * Adds the nullable updatedAt column to a partitioned table. Rows shipped before it have
+     * NULL there, which sorts after every real version in latestRowsSql.
+     * @param table Existing partitioned user table
+     */
+    private void addUpdatedAtColumn(Table table) {
+        StandardTableDefinition definition = table.getDefinition();
+        List<Field> fields = new ArrayList<>(definition.getSchema().getFields());
+        fields.add(Field.of("updatedAt", StandardSQLTypeName.INT64));
+        table.toBuilder()
+                .setDefinition(definition.toBuilder().setSchema(Schema.of(fields)).build())
+                .build()
+                .update();
+        System.out.println("Added updatedAt column to BigQuery table " + tableName);
+    }
+
+    /**
+     * Returns table metadata, served from cache while fresh.
+     * Missing tables are not cached so that a newly created table is seen immediately.
+     * @param tableId Table to look up
+     * @return Table metadata, or null if the table does not exist
+     */
+    private Table getTableMetadata(TableId tableId) {
+        Table table = TABLE_CACHE.get(tableId);
+        if (table == null) {
+            table = bigQuery.getTable(tableId);
+            if (table != null) {
+                TABLE_CACHE.put(tableId, table);
+            }
         }
+        return table;
     }
 
     /**
-     * Checks if the user table exists in BigQuery.
+     * Builds the typed, partitioned and clustered table definition for users.
+     * @return Table definition for the user table
+     */
+    private StandardTableDefinition buildTableDefinition() {
+        Schema schema = Schema.of(
+                Field.of("id", StandardSQLTypeName.INT64),
+                Field.of("name", StandardSQLTypeName.STRING),
+                Field.of("dateOfBirth", StandardSQLTypeName.DATE),
+                Field.of("email", StandardSQLTypeName.STRING),
+                Field.of("password", StandardSQLTypeName.STRING),
+                Field.of("phone", StandardSQLTypeName.STRING),
+                Field.of("gender", StandardSQLTypeName.STRING),
+                Field.of("address", StandardSQLTypeName.STRING),
+                Field.of("migratedAt", StandardSQLTypeName.TIMESTAMP),
+                Field.of("updatedAt", StandardSQLTypeName.INT64)
+        );
+
+        return StandardTableDefinition.newBuilder()
+                .setSchema(schema)
+                .setTimePartitioning(TimePartitioning.newBuilder(TimePartitioning.Type.DAY)
+                        .setField("migratedAt")
+                        .build())
+                .setClustering(Clustering.newBuilder()
+                        .setFields(List.of("email", "gender"))
+                        .build())
+                .build();
+    }
+
+    /**
+     * Checks whether an existing table predates the partitioned layout.
+     * @param table Existing user table
+     * @return true if the table is unpartitioned or stores dateOfBirth as STRING
+     */
+    private boolean isLegacyLayout(Table table) {
+        StandardTableDefinition definition = table.getDefinition();
+        if (definition.getTimePartitioning() == null) {
+            return true;
+        }
+        Field dateOfBirth = definition.getSchema().getFields().get("dateOfBirth");
+        return dateOfBirth.getType().getStandardType() != StandardSQLTypeName.DATE;
+    }
+
+    /**
+     * Rebuilds a legacy table in the partitioned layout.
+     * Copies existing rows with dateOfBirth parsed to DATE, migratedAt set to now and updatedAt
+     * set to 0, as Datastore does for users written before change tracking,
+     * then swaps the new table in and keeps the old one as a timestamped backup.
+     * BigQuery refuses to rename a table with rows still in its streaming buffer;
+     * in that case the error propagates and the backfill is retried on the next migration.
+     * @param tableId Legacy table to rebuild
+     */
+    private void backfillLegacyTable(TableId tableId) {
+        String stagingName = tableName + "_partitioned";
+        String backupName = tableName + "_legacy_" + System.currentTimeMillis();
+
+        System.out.println("Backfilling legacy BigQuery table " + tableName + " into partitioned layout");
+
+        String script = String.join("\n",
+                "CREATE OR REPLACE TABLE " + qualifiedName(stagingName),
+                "PARTITION BY DATE(migratedAt)",
+                "CLUSTER BY email, gender",
+                "AS SELECT id, name,",
+                "  SAFE.PARSE_DATE('%Y-%m-%d', NULLIF(CAST(dateOfBirth AS STRING), '')) AS dateOfBirth,",
+                "  email, password, phone, gender, address,",
+                "  CURRENT_TIMESTAMP() AS migratedAt,",
+                "  CAST(0 AS INT64) AS updatedAt",
+                "FROM " + qualifiedName(tableName) + ";",
+                "ALTER TABLE " + qualifiedName(tableName) + " RENAME TO " + backupName + ";",
+                "ALTER TABLE " + qualifiedName(stagingName) + " RENAME TO " + tableName + ";");
+
+        try {
+            bigQuery.query(QueryJobConfiguration.newBuilder(script).build());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BigQueryException(0, "Interrupted while backfilling " + tableId.getTable(), e);
+        }
+
+        System.out.println("Legacy table kept as " + backupName);
+    }
+
+    /**
+     * Builds a backtick-quoted, fully qualified table reference for SQL.
+     * @param table Table name within the configured dataset
+     * @return Qualified table reference
+     */
+    private String qualifiedName(String table) {
+        return String.format("`%s.%s.%s`", projectId, datasetName, table);
+    }
+
+    /**
+     * Returns the name of the user table in BigQuery.
+     * @return BigQuery table name
+     */
+    @Override
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * Checks if the user table exists in BigQuery, using cached metadata when fresh.
      * @return true if table exists, false otherwise
      */
     @Override
     public boolean tableExists() {
         TableId tableId = TableId.of(projectId, datasetName, tableName);
-        Table table = bigQuery.getTable(tableId);
-        return table != null;
+        return getTableMetadata(tableId) != null;
     }
 
     /**
      * Migrates a list of users to BigQuery.
-     * Ensures dataset and table exist, then inserts user data.
      * @param users List of users to migrate
      * @return Map with migration result details
      */
     @Override
     public Map<String, Object> migrateUsers(List<User> users) {
+        return migrateUsers(users.iterator());
+    }
+
+    /**
+     * Streams users into BigQuery through a bounded pipeline.
+     * Ensures dataset and table exist, then maps users to rows on transform workers
+     * and inserts them in fixed-size batches on sink workers.
+     * @param users Iterator over users to migrate, typically backed by a Datastore query
+     * @return Map with migration result details
+     */
+    @Override
+    public Map<String, Object> migrateUsers(Iterator<User> users) {
         Map<String, Object> result = new HashMap<>();
+        // Highest updatedAt seen, used by callers to advance the migration watermark
+        AtomicLong maxUpdatedAt = new AtomicLong();
         try {
             // Ensure dataset and table exist
             createDatasetIfNotExists();
             createTableIfNotExists();
 
             TableId tableId = TableId.of(projectId, datasetName, tableName);
+            // All rows of one run land in the same migratedAt partition
+            double migratedAtSeconds = System.currentTimeMillis() / 1000.0;
+            MigrationPipeline<User, InsertAllRequest.RowToInsert> pipeline = new MigrationPipeline<>(
+                    PIPELINE_QUEUE_CAPACITY, TRANSFORM_WORKERS, SINK_WORKERS, INSERT_BATCH_SIZE);
 
-            // Convert users to BigQuery rows
-            List<InsertAllRequest.RowToInsert> rows = new ArrayList<>();
-
-            for (User user : users) {
-                Map<String, Object> rowContent = new HashMap<>();
-                rowContent.put("id", user.getId());
-                rowContent.put("name", user.getName());
-                rowContent.put("dateOfBirth", user.getDateOfBirth() != null
-                        ? user.getDateOfBirth().format(DateTimeFormatter.ISO_LOCAL_DATE)
-                        : "");
-                rowContent.put("email", user.getEmail());
-                rowContent.put("password", user.getPassword());
-                rowContent.put("phone", user.getPhone());
-                rowContent.put("gender", user.getGender());
-                rowContent.put("address", user.getAddress());
-
-                rows.add(InsertAllRequest.RowToInsert.of(rowContent));
-            }
+            MigrationPipeline.Result pipelineResult = pipeline.run(
+                    users,
+                    user -> {
+                        maxUpdatedAt.accumulateAndGet(user.getUpdatedAt(), Math::max);
+                        return toRow(user, migratedAtSeconds);
+                    },
+                    batch -> insertBatch(tableId, batch));
 
-            // Insert rows into BigQuery
-            InsertAllRequest insertRequest = InsertAllRequest.newBuilder(tableId)
-                    .setRows(rows)
-                    .build();
+            // New rows make cached query results stale
+            if (pipelineResult.getRead() > 0) {
+                QUERY_CACHE.clear();
+            }
 
-            InsertAllResponse response = bigQuery.insertAll(insertRequest);
+            long total = pipelineResult.getRead();
+            long migratedCount = pipelineResult.getSucceeded();
 
             // Handle insertion result
-            if (response.hasErrors()) {
-                Map<Long, List<BigQueryError>> errors = response.getInsertErrors();
-                int migratedCount = users.size() - errors.size();
-                result.put("success", true);
-                result.put("migrated", migratedCount);
-                result.put("total", users.size());
-                result.put("message", migratedCount + " users migrated to BigQuery with some errors");
+            result.put("success", pipelineResult.isComplete());
+            result.put("aborted", pipelineResult.isAborted());
+            result.put("migrated", migratedCount);
+            result.put("total", total);
+            result.put("maxUpdatedAt", maxUpdatedAt.get());
+            if (pipelineResult.isAborted()) {
+                result.put("message", "Migration aborted after " + total + " users were read ("
+                        + migratedCount + " migrated): " + pipelineResult.getSourceError().getMessage());
+            } else if (pipelineResult.getFailed() > 0) {
+                Exception error = pipelineResult.getFirstError();
+                result.put("message", migratedCount + " users migrated to BigQuery with some errors"
+                        + (error != null ? ": " + error.getMessage() : ""));
             } else {
-                result.put("success", true);
-                result.put("migrated", users.size());
-                result.put("total", users.size());
-                result.put("message", users.size() + " users successfully migrated to BigQuery");
+                result.put("message", total + " users successfully migrated to BigQuery");
             }
 
         } catch (Exception e) {
             // Handle migration errors
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
             System.err.println("Error during migration: " + e.getMessage());
             result.put("success", false);
             result.put("message", "Migration failed: " + e.getMessage());
-            result.put("migrated", 0);
-            result.put("total", users.size());
+            result.put("migrated", 0L);
+            result.put("total", 0L);
         }
         return result;
     }
 
+    /**
+     * Converts a user to a BigQuery row.
+     * id + updatedAt is used as insertId so re-sent copies of the same version are de-duplicated.
+     * @param user User to convert
+     * @param migratedAtSeconds Migration run time in epoch seconds, the partitioning column
+     * @return Row ready for streaming insert
+     */
+    private InsertAllRequest.RowToInsert toRow(User user, double migratedAtSeconds) {
+        Map<String, Object> rowContent = new HashMap<>();
+        rowContent.put("id", user.getId());
+        rowContent.put("name", user.getName());
+        rowContent.put("dateOfBirth", user.getDateOfBirth() != null
+                ? user.getDateOfBirth().format(DateTimeFormatter.ISO_LOCAL_DATE)
+                : null);
+        rowContent.put("email", user.getEmail());
+        rowContent.put("password", user.getPassword());
+        rowContent.put("phone", user.getPhone());
+        rowContent.put("gender", user.getGender());
+        rowContent.put("address", user.getAddress());
+        rowContent.put("migratedAt", migratedAtSeconds);
+        rowContent.put("updatedAt", user.getUpdatedAt());
+
+        return InsertAllRequest.RowToInsert.of(user.getId() + "-" + user.getUpdatedAt(), rowContent);
+    }
+
+    /**
+     * Inserts one batch of rows into BigQuery.
+     * @param tableId Destination table
+     * @param rows Rows to insert
+     * @return Number of rows BigQuery rejected
+     */
+    private int insertBatch(TableId tableId, List<InsertAllRequest.RowToInsert> rows) {
+        InsertAllRequest insertRequest = InsertAllRequest.newBuilder(tableId)
+                .setRows(rows)
+                .build();
+
+        InsertAllResponse response = bigQuery.insertAll(insertRequest);
+        return response.hasErrors() ? response.getInsertErrors().size() : 0;
+    }
+
     /**
      * Queries a limited number of users from BigQuery.
+     * Limits above the page size cap are read over several pages of the same query job.
      * @param limit Maximum number of users to return
      * @return List of users retrieved from BigQuery
      */
     @Override
     public List<User> queryUsers(int limit) {
+        List<User> users = new ArrayList<>();
+        if (limit < 1) {
+            return users;
+        }
         try {
-            // Build SQL query for users
-            String query = String.format(
-                    "SELECT id, name, dateOfBirth, email, phone, gender, address FROM `%s.%s.%s` LIMIT %d",
-                    projectId, datasetName, tableName, limit
-            );
-
-            QueryJobConfiguration queryConfig = QueryJobConfiguration.newBuilder(query).build();
-            TableResult result = bigQuery.query(queryConfig);
-
-            List<User> users = new ArrayList<>();
-            // Map query result rows to User objects
-            for (FieldValueList row : result.iterateAll()) {
-                User user = new User();
-                user.setId(row.get("id").getLongValue());
-                user.setName(row.get("name").getStringValue());
-                user.setEmail(row.get("email").getStringValue());
-                user.setPhone(row.get("phone").getStringValue());
-                user.setGender(row.get("gender").getStringValue());
-                user.setAddress(row.get("address").getStringValue());
-                users.add(user);
-            }
+            UserQuery query = new UserQuery();
+            query.setPageSize(Math.min(limit, UserQuery.MAX_PAGE_SIZE));
 
+            String pageToken;
+            do {
+                pageToken = queryUsers(query, user -> {
+                    if (users.size() < limit) {
+                        users.add(user);
+                    }
+                });
+                query.setPageToken(pageToken);
+            } while (pageToken != null && users.size() < limit);
             return users;
         } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
             // Handle query errors
             System.err.println("Error querying users: " + e.getMessage());
             return new ArrayList<>();
         }
     }
+
+    /**
+     * Runs a parameterized user query and emits one page of results.
+     * A fresh query starts a BigQuery job; a page token resumes that job's results
+     * without re-running the query, so later pages cost no additional bytes scanned.
+     * @param query Filters, ordering and paging options
+     * @param consumer Receives each user of the page as it is decoded
+     * @return Token for the next page, or null when there are no more rows
+     * @throws InterruptedException if interrupted while waiting for the query job
+     */
+    @Override
+    public String queryUsers(UserQuery query, Consumer<User> consumer) throws InterruptedException {
+        if (query.getPageToken() != null && !query.getPageToken().isEmpty()) {
+            // Resume an existing job at the given page
+            String[] token = decodePageToken(query.getPageToken());
+            Job job = bigQuery.getJob(JobId.of(projectId, token[0]));
+            if (job == null) {
+                throw new IllegalArgumentException("Page token has expired");
+            }
+            TableResult page = job.getQueryResults(
+                    BigQuery.QueryResultsOption.pageSize(query.getPageSize()),
+                    BigQuery.QueryResultsOption.pageToken(token[1]));
+            return emitPage(job, page, consumer);
+        }
+
+        QueryJobConfiguration configuration = buildQueryConfiguration(query);
+        String cacheKey = cacheKey(configuration, query.getPageSize());
+
+        // Replay a fresh identical first page without touching BigQuery
+        CachedPage cached = QUERY_CACHE.get(cacheKey);
+        if (cached != null) {
+            cached.users.forEach(consumer);
+            return cached.nextPageToken;
+        }
+
+        Job job = bigQuery.create(JobInfo.of(JobId.of(projectId, UUID.randomUUID().toString()), configuration));
+        TableResult page = job.getQueryResults(BigQuery.QueryResultsOption.pageSize(query.getPageSize()));
+
+        List<User> users = new ArrayList<>();
+        String nextPageToken = emitPage(job, page, consumer.andThen(users::add));
+        QUERY_CACHE.put(cacheKey, new CachedPage(users, nextPageToken));
+        return nextPageToken;
+    }
+
+    /**
+     * Maps the rows of a result page to Users and hands them to the consumer.
+     * @param job Query job the page belongs to
+     * @param page Current result page
+     * @param consumer Receives each user
+     * @return Token for the next page, or null when there are no more rows
+     */
+    private String emitPage(Job job, TableResult page, Consumer<User> consumer) {
+        for (FieldValueList row : page.getValues()) {
+            consumer.accept(toUser(row));
+        }
+
+        return page.hasNextPage()
+                ? encodePageToken(job.getJobId().getJob(), page.getNextPageToken())
+                : null;
+    }
+
+    /**
+     * Builds a cache key from whitespace-normalized SQL, sorted parameters and page size.
+     * @param configuration Query job configuration
+     * @param pageSize Rows per page
+     * @return Cache key
+     */
+    private static String cacheKey(QueryJobConfiguration configuration, int pageSize) {
+        StringBuilder key = new StringBuilder(configuration.getQuery().trim().replaceAll("\\s+", " "));
+        new TreeMap<>(configuration.getNamedParameters()).forEach((name, value) ->
+                key.append('|').append(name).append('=').append(value.getType()).append(':').append(value.getValue()));
+        return key.append("|pageSize=").append(pageSize).toString();
+    }
+
+    /**
+     * Rebuilds the demographic rollup table from the latest version of each migrated user.
+     * Counts per gender, age band and city use the same bucketing as DemographicRollup.
+     * @throws InterruptedException if interrupted while waiting for the query job
+     */
+    @Override
+    public void refreshDemographicRollups() throws InterruptedException {
+        String rollupTable = tableName + "_demographics";
+        String sql = String.join("\n",
+                "CREATE OR REPLACE TABLE " + qualifiedName(rollupTable) + " AS",
+                "WITH latest AS (" + latestRowsSql() + ")",
+                "SELECT '" + DemographicRollup.GENDER + "' AS dimension, "
+                        + DemographicRollup.genderSql("gender") + " AS bucket, COUNT(*) AS users,"
+                        + " CURRENT_TIMESTAMP() AS computedAt FROM latest GROUP BY bucket",
+                "UNION ALL",
+                "SELECT '" + DemographicRollup.AGE_BAND + "', "
+                        + DemographicRollup.ageBandSql("dateOfBirth") + " AS bucket, COUNT(*),"
+                        + " CURRENT_TIMESTAMP() FROM latest GROUP BY bucket",
+                "UNION ALL",
+                "SELECT '" + DemographicRollup.CITY + "', "
+                        + DemographicRollup.citySql("address") + " AS bucket, COUNT(*),"
+                        + " CURRENT_TIMESTAMP() FROM latest GROUP BY bucket");
+
+        bigQuery.query(QueryJobConfiguration.newBuilder(sql).setUseLegacySql(false).build());
+        ROLLUP_CACHE.invalidate(rollupTable);
+        TABLE_CACHE.invalidate(TableId.of(projectId, datasetName, rollupTable));
+    }
+
+    /**
+     * Reads the demographic rollup table, served from cache while fresh.
+     * The rollup is built on first use if it does not exist yet.
+     * @return Map with total, builtAt and one bucket-to-count map per dimension; empty if nothing was migrated
+     * @throws InterruptedException if interrupted while waiting for the query job
+     */
+    @Override
+    public Map<String, Object> getDemographicRollups() throws InterruptedException {
+        String rollupTable = tableName + "_demographics";
+        Map<String, Object> cached = ROLLUP_CACHE.get(rollupTable);
+        if (cached != null) {
+            return cached;
+        }
+
+        Map<String, Object> result = new TreeMap<>();
+        if (getTableMetadata(TableId.of(projectId, datasetName, rollupTable)) == null) {
+            if (!tableExists()) {
+                return result;
+            }
+            refreshDemographicRollups();
+        }
+
+        TableResult rows = bigQuery.query(QueryJobConfiguration.newBuilder(
+                "SELECT dimension, bucket, users, computedAt FROM " + qualifiedName(rollupTable))
+                .setUseLegacySql(false)
+                .build());
+
+        long total = 0;
+        long computedAt = 0;
+        for (FieldValueList row : rows.iterateAll()) {
+            String dimension = row.get("dimension").getStringValue();
+            long users = row.get("users").getLongValue();
+            @SuppressWarnings("unchecked")
+            Map<String, Long> buckets = (Map<String, Long>) result.computeIfAbsent(dimension, d -> new TreeMap<String, Long>());
+            buckets.put(row.get("bucket").getStringValue(), users);
+            if (DemographicRollup.GENDER.equals(dimension)) {
+                total += users;
+            }
+            computedAt = row.get("computedAt").getTimestampValue() / 1000;
+        }
+        result.put("total", total);
+        result.put("builtAt", computedAt);
+
+        ROLLUP_CACHE.put(rollupTable, result);
+        return result;
+    }
+
+    /**
+     * Gets the smallest and largest user ID in the table.
+     * @return {min, max}, or null if the table is missing or empty
+     * @throws InterruptedException if interrupted while waiting for the query job
+     */
+    @Override
+    public long[] getIdBounds() throws InterruptedException {
+        if (!tableExists()) {
+            return null;
+        }
+        TableResult result = bigQuery.query(QueryJobConfiguration.newBuilder(
+                "SELECT MIN(id) AS minId, MAX(id) AS maxId FROM " + qualifiedName(tableName))
+                .setUseLegacySql(false)
+                .build());
+        FieldValueList row = result.iterateAll().iterator().next();
+        if (row.get("minId").isNull()) {
+            return null;
+        }
+        return new long[]{row.get("minId").getLongValue(), row.get("maxId").getLongValue()};
+    }
+
+    /**
+     * Computes the row count and XOR of row fingerprints of each ID range in a single scan,
+     * over the latest version of each user.
+     * @param ranges Disjoint ID ranges
+     * @return One checksum per range, ordered by range start; empty ranges have count 0
+     * @throws InterruptedException if interrupted while waiting for the query job
+     */
+    @Override
+    public List<KeyRange> checksumRanges(List<KeyRange> ranges) throws InterruptedException {
+        List<KeyRange> sorted = sortedRanges(ranges);
+        String sql = rangeBucketsSql(sorted)
+                + "SELECT bucket, COUNT(*) AS rowCount, BIT_XOR(fingerprint) AS checksum"
+                + " FROM bucketed GROUP BY bucket";
+        TableResult result = bigQuery.query(rangeQueryConfiguration(sql, sorted));
+
+        for (FieldValueList row : result.iterateAll()) {
+            KeyRange range = sorted.get((int) row.get("bucket").getLongValue());
+            range.setCount(row.get("rowCount").getLongValue());
+            range.setChecksum(row.get("checksum").getLongValue());
+        }
+        return sorted;
+    }
+
+    /**
+     * Fingerprints every row in the given ID ranges, for comparing narrow ranges row by row.
+     * @param ranges Disjoint ID ranges, small enough for their rows to fit in memory
+     * @return Map of user ID to fingerprint of its latest version
+     * @throws InterruptedException if interrupted while waiting for the query job
+     */
+    @Override
+    public Map<Long, Long> fingerprintRows(List<KeyRange> ranges) throws InterruptedException {
+        List<KeyRange> sorted = sortedRanges(ranges);
+        String sql = rangeBucketsSql(sorted) + "SELECT id, fingerprint FROM bucketed";
+        TableResult result = bigQuery.query(rangeQueryConfiguration(sql, sorted));
+
+        Map<Long, Long> fingerprints = new HashMap<>();
+        for (FieldValueList row : result.iterateAll()) {
+            fingerprints.put(row.get("id").getLongValue(), row.get("fingerprint").getLongValue());
+        }
+        return fingerprints;
+    }
+
+    /**
+     * Selects the latest version of each user; the table is append-only, so an updated
+     * user has one row per migration that shipped it. Versions are ordered by the Datastore
+     * updatedAt first, since every row of one run shares its migratedAt and a user changed
+     * mid-run can be shipped twice by that run.
+     */
+    private String latestRowsSql() {
+        return "SELECT * FROM " + qualifiedName(tableName)
+                + " WHERE TRUE QUALIFY ROW_NUMBER() OVER (PARTITION BY id ORDER BY updatedAt DESC, migratedAt DESC) = 1";
+    }
+
+    /**
+     * Builds a WITH clause whose "bucketed" table holds the id, fingerprint and range index
+     * of every latest row falling inside one of the ranges bound to @starts and @ends.
+     */
+    private String rangeBucketsSql(List<KeyRange> sorted) {
+        return String.join("\n",
+                "WITH bucketed AS (",
+                "  SELECT * FROM (",
+                "    SELECT id, " + UserChecksum.fingerprintSql() + " AS fingerprint,",
+                "      RANGE_BUCKET(id, @starts) - 1 AS bucket",
+                "    FROM (" + latestRowsSql() + ")",
+                "  ) WHERE bucket >= 0 AND id < @ends[SAFE_OFFSET(bucket)]",
+                ")",
+                "");
+    }
+
+    private QueryJobConfiguration rangeQueryConfiguration(String sql, List<KeyRange> sorted) {
+        Long[] starts = sorted.stream().map(KeyRange::getStart).toArray(Long[]::new);
+        Long[] ends = sorted.stream().map(KeyRange::getEnd).toArray(Long[]::new);
+        return QueryJobConfiguration.newBuilder(sql)
+                .addNamedParameter("starts", QueryParameterValue.array(starts, StandardSQLTypeName.INT64))
+                .addNamedParameter("ends", QueryParameterValue.array(ends, StandardSQLTypeName.INT64))
+                .setUseLegacySql(false)
+                .build();
+    }
+
+    /**
+     * Copies ranges into start order, as RANGE_BUCKET requires, with counts cleared.
+     */
+    private static List<KeyRange> sortedRanges(List<KeyRange> ranges) {
+        List<KeyRange> sorted = new ArrayList<>();
+        for (KeyRange range : ranges) {
+            sorted.add(new KeyRange(range.getStart(), range.getEnd()));
+        }
+        sorted.sort(Comparator.comparingLong(KeyRange::getStart));
+        return sorted;
+    }
+
+    /**
+     * Reads the latest row of every migrated user through the BigQuery Storage Read API.
+     * The table is append-only, so the latest rows are first selected by a query into its
+     * temporary result table, which is then read as Arrow record batches over up to maxStreams
+     * parallel streams and decoded column-wise into Users, bypassing the per-cell FieldValue
+     * allocation of query results.
+     * @param maxStreams Upper bound on parallel read streams; BigQuery may grant fewer
+     * @param consumer Receives every user; called concurrently from the stream threads
+     * @return Number of users read
+     * @throws IOException if the read session or a batch cannot be read
+     * @throws InterruptedException if interrupted while waiting for the query or the streams
+     */
+    @Override
+    public long readUsers(int maxStreams, Consumer<User> consumer) throws IOException, InterruptedException {
+        if (!tableExists()) {
+            return 0;
+        }
+        Job job = bigQuery.create(JobInfo.of(JobId.of(projectId, UUID.randomUUID().toString()),
+                QueryJobConfiguration.newBuilder("SELECT id, name, dateOfBirth, email, phone, gender, address FROM ("
+                        + latestRowsSql() + ")").setUseLegacySql(false).build())).waitFor();
+        if (job == null || job.getStatus().getError() != null) {
+            throw new IOException("Latest rows query failed: "
+                    + (job == null ? "job no longer exists" : job.getStatus().getError().getMessage()));
+        }
+        TableId results = ((QueryJobConfiguration) job.getConfiguration()).getDestinationTable();
+        String table = String.format("projects/%s/datasets/%s/tables/%s",
+                results.getProject(), results.getDataset(), results.getTable());
+
+        try (BigQueryReadClient client = BigQueryReadClient.create()) {
+            ReadSession.TableReadOptions readOptions = ReadSession.TableReadOptions.newBuilder()
+                    .addAllSelectedFields(List.of("id", "name", "dateOfBirth", "email", "phone", "gender", "address"))
+                    .build();
+            ReadSession session = client.createReadSession(CreateReadSessionRequest.newBuilder()
+                    .setParent("projects/" + projectId)
+                    .setReadSession(ReadSession.newBuilder()
+                            .setTable(table)
+                            .setDataFormat(DataFormat.ARROW)
+                            .setReadOptions(readOptions))
+                    .setMaxStreamCount(maxStreams)
+                    .build());
+
+            if (session.getStreamsCount() == 0) {
+                // An empty table yields a session with no streams
+                return 0;
+            }
+
+            ByteString serializedSchema = session.getArrowSchema().getSerializedSchema();
+            AtomicLong rowsRead = new AtomicLong();
+            ExecutorService executor = Executors.newFixedThreadPool(session.getStreamsCount());
+            try {
+                List<Future<?>> streams = new ArrayList<>();
+                for (ReadStream stream : session.getStreamsList()) {
+                    streams.add(executor.submit(() -> {
+                        // Each stream decodes into its own vectors
+                        try (ArrowUserDecoder decoder = new ArrowUserDecoder(serializedSchema.newInput())) {
+                            ReadRowsRequest request = ReadRowsRequest.newBuilder()
+                                    .setReadStream(stream.getName())
+                                    .build();
+                            for (ReadRowsResponse response : client.readRowsCallable().call(request)) {
+                                if (response.hasArrowRecordBatch()) {
+                                    rowsRead.addAndGet(decoder.decode(
+                                            response.getArrowRecordBatch().getSerializedRecordBatch().newInput(),
+                                            consumer));
+                                }
+                            }
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> stream : streams) {
+                    stream.get();
+                }
+            } catch (ExecutionException e) {
+                throw new IOException("Storage read stream failed: " + e.getCause().getMessage(), e.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+            return rowsRead.get();
+        }
+    }
+
+    /**
+     * Builds the SQL and named parameters for a user query.
+     * Filters apply to the latest row of each user, so an older version can never match.
+     * Only whitelisted column names are interpolated; all values are bound as parameters.
+     * @param query Filters and ordering
+     * @return Query job configuration
+     */
+    private QueryJobConfiguration buildQueryConfiguration(UserQuery query) {
+        StringBuilder sql = new StringBuilder(
+                "SELECT id, name, dateOfBirth, email, phone, gender, address FROM (")
+                .append(latestRowsSql())
+                .append(") WHERE TRUE");
+        Map<String, QueryParameterValue> parameters = new HashMap<>();
+
+        if (query.getEmail() != null) {
+            sql.append(" AND email = @email");
+            parameters.put("email", QueryParameterValue.string(query.getEmail()));
+        }
+        if (query.getGender() != null) {
+            sql.append(" AND gender = @gender");
+            parameters.put("gender", QueryParameterValue.string(query.getGender()));
+        }
+        if (query.getNameContains() != null) {
+            sql.append(" AND STRPOS(LOWER(name), LOWER(@nameContains)) > 0");
+            parameters.put("nameContains", QueryParameterValue.string(query.getNameContains()));
+        }
+        if (query.getBornAfter() != null) {
+            sql.append(" AND dateOfBirth >= @bornAfter");
+            parameters.put("bornAfter", QueryParameterValue.date(query.getBornAfter().toString()));
+        }
+        if (query.getBornBefore() != null) {
+            sql.append(" AND dateOfBirth < @bornBefore");
+            parameters.put("bornBefore", QueryParameterValue.date(query.getBornBefore().toString()));
+        }
+        if (query.getMigratedAfter() != null) {
+            // Users whose latest version was shipped since then
+            sql.append(" AND migratedAt >= @migratedAfter");
+            parameters.put("migratedAfter", QueryParameterValue.timestamp(
+                    query.getMigratedAfter().toEpochMilli() * 1000));
+        }
+
+        sql.append(" ORDER BY ").append(query.getOrderBy())
+                .append(query.isDescending() ? " DESC" : " ASC");
+
+        return QueryJobConfiguration.newBuilder(sql.toString())
+                .setUseLegacySql(false)
+                .setNamedParameters(parameters)
+                .build();
+    }
+
+    /**
+     * Converts a BigQuery result row to a User.
+     * @param row Result row with the user columns
+     * @return User populated from the row
+     */
+    private User toUser(FieldValueList row) {
+        User user = new User();
+        user.setId(row.get("id").getLongValue());
+        user.setName(row.get("name").getStringValue());
+        if (!row.get("dateOfBirth").isNull()) {
+            user.setDateOfBirth(LocalDate.parse(row.get("dateOfBirth").getStringValue()));
+        }
+        user.setEmail(row.get("email").getStringValue());
+        user.setPhone(row.get("phone").getStringValue());
+        user.setGender(row.get("gender").getStringValue());
+        user.setAddress(row.get("address").getStringValue());
+        return user;
+    }
+
+    /**
+     * First page of a query result kept in the query cache.
+     */
+    private static class CachedPage {
+        private final List<User> users;
+        private final String nextPageToken;
+
+        CachedPage(List<User> users, String nextPageToken) {
+            this.users = users;
+            this.nextPageToken = nextPageToken;
+        }
+    }
+
+    /**
+     * Packs a job ID and BigQuery page token into one opaque client token.
+     */
+    private static String encodePageToken(String jobId, String pageToken) {
+        String raw = jobId + "\n" + pageToken;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Unpacks a client token into its job ID and BigQuery page token.
+     */
+    private static String[] decodePageToken(String token) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            String[] parts = raw.split("\n", 2);
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid page token");
+            }
+            return parts;
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid page token");
+        }
+    }
 }
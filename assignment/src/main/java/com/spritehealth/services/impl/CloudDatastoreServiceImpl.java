@@ -2,12 +2,30 @@ package com.spritehealth.services.impl;
 
 import com.google.cloud.datastore.*;
 import com.spritehealth.models.User;
+import com.spritehealth.models.UserOperation;
+import com.spritehealth.models.UserOperationResult;
+import com.spritehealth.models.UserPage;
 import com.spritehealth.services.interfaces.IUserDatastoreService;
+import com.spritehealth.utils.DemographicRollup;
+import com.spritehealth.utils.PasswordHasher;
 
+import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
 
 /**
  * Cloud Datastore implementation for user storage.
@@ -15,7 +33,20 @@ import java.util.stream.StreamSupport;
  */
 public class CloudDatastoreServiceImpl implements IUserDatastoreService {
     private static final String KIND = "User"; // Datastore kind for User entities
+    private static final String VERSION_KIND = "CollectionVersion"; // Kind holding collection versions
+    private static final int MODIFY_ATTEMPTS = 3; // Attempts per transactional update under contention
+    private static final int CHUNK_SIZE = 500;     // Batch operations per commit, the Datastore mutation limit
+    // Applies the chunks of batch requests in parallel
+    private static final ExecutorService BATCH_EXECUTOR = Executors.newFixedThreadPool(4, runnable -> {
+        Thread thread = new Thread(runnable, "user-batch");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Property sets whose projection needs a composite index that does not exist; read as full entities
+    private static final Set<Set<String>> UNINDEXED_PROJECTIONS = ConcurrentHashMap.newKeySet();
     private final Datastore datastore;         // Datastore client instance
+    private final DemographicRollup rollup = DemographicRollup.getInstance(); // Live demographic counts
+    private final PasswordHasher passwordHasher = PasswordHasher.getInstance(); // Password hashing and verification
 
     /**
      * Constructor initializes the Datastore client.
@@ -44,7 +75,7 @@ public class CloudDatastoreServiceImpl implements IUserDatastoreService {
     }
 
     /**
-     * Creates a new user in Datastore.
+     * Creates a new user in Datastore, storing a hash of the password.
      * @param user User object to create
      * @return Created User with assigned ID
      */
@@ -53,38 +84,62 @@ public class CloudDatastoreServiceImpl implements IUserDatastoreService {
         KeyFactory keyFactory = datastore.newKeyFactory().setKind(KIND);
         IncompleteKey incompleteKey = keyFactory.newKey(); // Create incomplete key for auto-ID
         Key key = datastore.allocateId(incompleteKey);      // Allocate unique ID
+        hashPassword(user);
 
         Entity entity = user.toEntityBuilder(key).build();  // Convert User to Entity
         Entity savedEntity = datastore.put(entity);         // Save entity to Datastore
 
-        return User.fromEntity(savedEntity);                // Convert back to User
+        User savedUser = User.fromEntity(savedEntity);      // Convert back to User
+        rollup.add(savedUser);                              // Count in live demographics
+        bumpUsersVersion();                                 // Invalidate cached lists
+        return savedUser;
     }
 
     /**
-     * Creates multiple users in Datastore.
+     * Creates multiple users in Datastore, hashing their passwords on the hashing pool.
+     * IDs are allocated in one call, and the users are put in chunks of at most CHUNK_SIZE,
+     * the Datastore limit per commit. A failed chunk fails the call; chunks put before it
+     * stay saved.
      * @param users List of User objects to create
      * @return List of created Users with assigned IDs
+     * @throws PasswordHasher.OverloadedException if too many password hashes are in progress
      */
     @Override
     public List<User> createUsers(List<User> users) {
-        List<Entity> entities = new ArrayList<>();
+        if (users.isEmpty()) {
+            return new ArrayList<>();
+        }
         KeyFactory keyFactory = datastore.newKeyFactory().setKind(KIND);
+        passwordHasher.hashPasswords(users);
 
-        // Convert each User to Entity with allocated ID
-        for (User user : users) {
-            IncompleteKey incompleteKey = keyFactory.newKey();
-            Key key = datastore.allocateId(incompleteKey);
-            Entity entity = user.toEntityBuilder(key).build();
-            entities.add(entity);
+        // Allocate every ID in one round trip
+        IncompleteKey[] incompleteKeys = new IncompleteKey[users.size()];
+        for (int i = 0; i < incompleteKeys.length; i++) {
+            incompleteKeys[i] = keyFactory.newKey();
         }
+        List<Key> keys = datastore.allocateId(incompleteKeys);
 
-        // Save all entities in batch
-        List<Entity> savedEntities = datastore.put(entities.toArray(new Entity[0]));
-
-        // Convert saved entities back to User objects
-        return savedEntities.stream()
-                .map(User::fromEntity)
-                .collect(Collectors.toList());
+        List<User> savedUsers = new ArrayList<>();
+        try {
+            for (int from = 0; from < users.size(); from += CHUNK_SIZE) {
+                int end = Math.min(from + CHUNK_SIZE, users.size());
+                Entity[] entities = new Entity[end - from];
+                for (int i = from; i < end; i++) {
+                    entities[i - from] = users.get(i).toEntityBuilder(keys.get(i)).build();
+                }
+                for (Entity savedEntity : datastore.put(entities)) {
+                    User savedUser = User.fromEntity(savedEntity);
+                    rollup.add(savedUser);
+                    savedUsers.add(savedUser);
+                }
+            }
+        } finally {
+            // Chunks already put changed the collection even if a later one failed
+            if (!savedUsers.isEmpty()) {
+                bumpUsersVersion();
+            }
+        }
+        return savedUsers;
     }
 
     /**
@@ -104,6 +159,25 @@ public class CloudDatastoreServiceImpl implements IUserDatastoreService {
         return User.fromEntity(entity);
     }
 
+    /**
+     * Retrieves a user by their ID, projecting only the given properties where an index allows it.
+     * @param id User ID
+     * @param properties Properties to read besides the ID, or null for all
+     * @return User object if found, otherwise null
+     */
+    @Override
+    public User getUserById(Long id, Set<String> properties) {
+        if (properties == null) {
+            return getUserById(id);
+        }
+        Key key = datastore.newKeyFactory().setKind(KIND).newKey(id);
+        Iterator<User> users = runProjection(properties, StructuredQuery.PropertyFilter.eq("__key__", key));
+        if (users == null) {
+            return getUserById(id);
+        }
+        return users.hasNext() ? users.next() : null;
+    }
+
     /**
      * Retrieves a user by their email address.
      * @param email User email
@@ -132,17 +206,197 @@ public class CloudDatastoreServiceImpl implements IUserDatastoreService {
      */
     @Override
     public List<User> getAllUsers() {
+        List<User> users = new ArrayList<>();
+        iterateAllUsers().forEachRemaining(users::add);
+        return users;
+    }
+
+    /**
+     * Lazily iterates all users; query results are fetched in pages as the iterator advances.
+     * @return Iterator of all User objects
+     */
+    @Override
+    public Iterator<User> iterateAllUsers() {
         Query<Entity> query = Query.newEntityQueryBuilder()
                 .setKind(KIND)
                 .build();
 
-        QueryResults<Entity> results = datastore.run(query);
+        return toUsers(datastore.run(query));
+    }
 
-        // Convert all entities to User objects
-        return StreamSupport.stream(
-                ((Iterable<Entity>) () -> results).spliterator(), false)
-                .map(User::fromEntity)
-                .collect(Collectors.toList());
+    /**
+     * Lazily iterates all users, projecting only the given properties where an index allows it.
+     * A single property is always served by its built-in index; several need a composite index,
+     * and without one the full entities are read instead. Projected results come in index order.
+     * @param properties Properties to read besides the ID, or null for all
+     * @return Iterator of User objects with at least those properties set
+     */
+    @Override
+    public Iterator<User> iterateAllUsers(Set<String> properties) {
+        if (properties == null) {
+            return iterateAllUsers();
+        }
+        Iterator<User> users = runProjection(properties, null);
+        return users != null ? users : iterateAllUsers();
+    }
+
+    /**
+     * Runs a projection query over users, or a keys-only query if no properties are requested.
+     * @param properties Properties to project
+     * @param filter Optional filter
+     * @return Iterator of partially populated users, or null if the projection has no index
+     */
+    private Iterator<User> runProjection(Set<String> properties, StructuredQuery.Filter filter) {
+        if (properties.isEmpty()) {
+            KeyQuery.Builder query = Query.newKeyQueryBuilder().setKind(KIND);
+            if (filter != null) {
+                query.setFilter(filter);
+            }
+            return mapResults(datastore.run(query.build()), key -> {
+                User user = new User();
+                user.setId(key.getId());
+                return user;
+            });
+        }
+        if (UNINDEXED_PROJECTIONS.contains(properties)) {
+            return null;
+        }
+
+        String[] names = properties.toArray(new String[0]);
+        ProjectionEntityQuery.Builder query = Query.newProjectionEntityQueryBuilder()
+                .setKind(KIND)
+                .setProjection(names[0], Arrays.copyOfRange(names, 1, names.length));
+        if (filter != null) {
+            query.setFilter(filter);
+        }
+        try {
+            // The first batch is fetched here, so a missing index fails before anything is returned
+            return mapResults(datastore.run(query.build()), User::fromProjection);
+        } catch (DatastoreException e) {
+            if (!"FAILED_PRECONDITION".equals(e.getReason())) {
+                throw e;
+            }
+            UNINDEXED_PROJECTIONS.add(Set.copyOf(properties));
+            System.out.println("No index for projection " + properties + "; reading full entities");
+            return null;
+        }
+    }
+
+    /**
+     * Retrieves users whose updatedAt is later than the given watermark.
+     * @param updatedAfter Epoch millis watermark
+     * @return List of changed User objects ordered by updatedAt
+     */
+    @Override
+    public List<User> getUsersUpdatedSince(long updatedAfter) {
+        List<User> users = new ArrayList<>();
+        iterateUsersUpdatedSince(updatedAfter).forEachRemaining(users::add);
+        return users;
+    }
+
+    /**
+     * Lazily iterates users whose updatedAt is later than the given watermark.
+     * A watermark of 0 falls back to a full scan so that entities written
+     * before change tracking are still picked up on the first run.
+     * Query results are fetched in pages as the iterator advances.
+     * @param updatedAfter Epoch millis watermark
+     * @return Iterator of changed User objects ordered by updatedAt
+     */
+    @Override
+    public Iterator<User> iterateUsersUpdatedSince(long updatedAfter) {
+        return toUsers(datastore.run(updatedSinceQuery(updatedAfter).build()));
+    }
+
+    /**
+     * Lazily iterates users whose ID lies in [startId, endId), in key order.
+     * Disjoint ranges can be scanned in parallel.
+     * @param startId First ID of the range
+     * @param endId ID just past the range; Long.MAX_VALUE leaves it open-ended
+     * @return Iterator of User objects in the range
+     */
+    @Override
+    public Iterator<User> iterateUsersInKeyRange(long startId, long endId) {
+        KeyFactory keyFactory = datastore.newKeyFactory().setKind(KIND);
+        List<StructuredQuery.Filter> filters = new ArrayList<>();
+        if (startId > 1) {
+            filters.add(StructuredQuery.PropertyFilter.ge("__key__", keyFactory.newKey(startId)));
+        }
+        if (endId < Long.MAX_VALUE) {
+            filters.add(StructuredQuery.PropertyFilter.lt("__key__", keyFactory.newKey(endId)));
+        }
+
+        EntityQuery.Builder queryBuilder = Query.newEntityQueryBuilder().setKind(KIND);
+        if (filters.size() == 1) {
+            queryBuilder.setFilter(filters.get(0));
+        } else if (filters.size() == 2) {
+            queryBuilder.setFilter(StructuredQuery.CompositeFilter.and(filters.get(0), filters.get(1)));
+        }
+        return toUsers(datastore.run(queryBuilder.build()));
+    }
+
+    /**
+     * Adapts query results to an iterator of users, fetching further pages as it advances.
+     */
+    private static Iterator<User> toUsers(QueryResults<Entity> results) {
+        return mapResults(results, User::fromEntity);
+    }
+
+    /**
+     * Adapts query results of any type to an iterator of users.
+     */
+    private static <T> Iterator<User> mapResults(QueryResults<T> results, Function<T, User> mapper) {
+        return new Iterator<User>() {
+            @Override
+            public boolean hasNext() {
+                return results.hasNext();
+            }
+
+            @Override
+            public User next() {
+                return mapper.apply(results.next());
+            }
+        };
+    }
+
+    /**
+     * Reads one page of users whose updatedAt is later than the given watermark.
+     * The returned cursor resumes the same query after the last user of the page,
+     * which lets long-running migrations checkpoint and continue across restarts.
+     * @param updatedAfter Epoch millis watermark; 0 pages through every user
+     * @param startCursor URL-safe cursor from a previous page, or null to start at the beginning
+     * @param limit Maximum number of users in the page
+     * @return Page of users with the cursor to continue from
+     */
+    @Override
+    public UserPage getUsersUpdatedSince(long updatedAfter, String startCursor, int limit) {
+        EntityQuery.Builder queryBuilder = updatedSinceQuery(updatedAfter).setLimit(limit);
+        if (startCursor != null && !startCursor.isEmpty()) {
+            queryBuilder.setStartCursor(Cursor.fromUrlSafe(startCursor));
+        }
+
+        QueryResults<Entity> results = datastore.run(queryBuilder.build());
+
+        List<User> users = new ArrayList<>();
+        while (results.hasNext()) {
+            users.add(User.fromEntity(results.next()));
+        }
+
+        return new UserPage(users, results.getCursorAfter().toUrlSafe());
+    }
+
+    /**
+     * Builds the query for users changed after a watermark.
+     * A watermark of 0 scans the whole kind in key order, including entities without updatedAt.
+     * @param updatedAfter Epoch millis watermark
+     * @return Query builder ready for paging options
+     */
+    private EntityQuery.Builder updatedSinceQuery(long updatedAfter) {
+        EntityQuery.Builder queryBuilder = Query.newEntityQueryBuilder().setKind(KIND);
+        if (updatedAfter > 0) {
+            queryBuilder.setFilter(StructuredQuery.PropertyFilter.gt("updatedAt", updatedAfter))
+                    .setOrderBy(StructuredQuery.OrderBy.asc("updatedAt"));
+        }
+        return queryBuilder;
     }
 
     /**
@@ -161,7 +415,7 @@ public class CloudDatastoreServiceImpl implements IUserDatastoreService {
     }
 
     /**
-     * Updates an existing user in Datastore.
+     * Updates an existing user in Datastore, replacing all of its fields in one transaction.
      * @param user User object with updated data
      * @return Updated User object, or null if not found
      */
@@ -172,16 +426,248 @@ public class CloudDatastoreServiceImpl implements IUserDatastoreService {
         }
 
         Key key = datastore.newKeyFactory().setKind(KIND).newKey(user.getId());
-        Entity existingEntity = datastore.get(key);
+        hashPassword(user);
+        return modifyUser(key, existing -> user.toEntityBuilder(key).build());
+    }
 
-        if (existingEntity == null) {
-            return null;
+    /**
+     * Applies a merge patch to a user in one read-modify-write transaction.
+     * A new password is hashed before the transaction starts, to keep the transaction short.
+     * @param id User ID
+     * @param changes New value per field; null clears the field
+     * @param expectedVersion updatedAt the client last saw, or null to apply unconditionally
+     * @return Updated User object, or null if not found
+     */
+    @Override
+    public User patchUser(Long id, Map<String, String> changes, Long expectedVersion) {
+        Map<String, String> values = new HashMap<>(changes);
+        if (values.get("password") != null) {
+            values.put("password", passwordHasher.hash(values.get("password")));
         }
 
-        Entity entity = user.toEntityBuilder(key).build();
-        datastore.update(entity);
+        Key key = datastore.newKeyFactory().setKind(KIND).newKey(id);
+        return modifyUser(key, existing -> {
+            long version = versionOf(existing);
+            if (expectedVersion != null && expectedVersion != version) {
+                throw new VersionConflictException(version);
+            }
+            return merge(existing, values);
+        });
+    }
 
-        return User.fromEntity(entity);
+    /**
+     * Applies a mixed list of creates, merge updates and deletes.
+     * New passwords are hashed up front on the hashing pool. The operations are then split into chunks
+     * of at most CHUNK_SIZE, each applied in one transaction: one ID allocation for its creates,
+     * one read of the users it updates or deletes, and one commit. Chunks run in parallel, so a
+     * chunk is atomic but the batch as a whole is not.
+     * @param operations Validated operations; update and delete targets must be distinct
+     * @return One result per operation, in order
+     * @throws PasswordHasher.OverloadedException if too many password hashes are in progress
+     */
+    @Override
+    public List<UserOperationResult> applyOperations(List<UserOperation> operations) {
+        passwordHasher.hashAll(operations.stream().map(UserOperation::getFields).collect(Collectors.toList()),
+                fields -> fields.get("password"), (fields, hash) -> fields.put("password", hash));
+
+        UserOperationResult[] results = new UserOperationResult[operations.size()];
+        List<Future<?>> chunks = new ArrayList<>();
+        for (int from = 0; from < operations.size(); from += CHUNK_SIZE) {
+            int start = from;
+            int end = Math.min(from + CHUNK_SIZE, operations.size());
+            chunks.add(BATCH_EXECUTOR.submit(() -> applyChunk(operations, start, end, results)));
+        }
+        // Every chunk is waited for, so none can commit after the version is bumped
+        Throwable failure = null;
+        try {
+            for (Future<?> chunk : chunks) {
+                try {
+                    chunk.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DatastoreException(0, "Interrupted while applying batch", "CANCELLED", e);
+        } finally {
+            // Chunks that committed changed the collection even if another one failed
+            bumpUsersVersion();
+        }
+        if (failure != null) {
+            throw new DatastoreException(0, "Error applying batch: " + failure.getMessage(), "UNKNOWN", failure);
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Applies operations [start, end) in one transaction, retried as a whole on contention.
+     * If the chunk cannot be committed, each of its operations gets a 500 result.
+     */
+    private void applyChunk(List<UserOperation> operations, int start, int end, UserOperationResult[] results) {
+        KeyFactory keyFactory = datastore.newKeyFactory().setKind(KIND);
+        List<IncompleteKey> newKeys = new ArrayList<>();
+        List<Key> targetKeys = new ArrayList<>();
+        for (int i = start; i < end; i++) {
+            UserOperation operation = operations.get(i);
+            if (operation.getType() == UserOperation.Type.CREATE) {
+                newKeys.add(keyFactory.newKey());
+            } else {
+                targetKeys.add(keyFactory.newKey(operation.getId()));
+            }
+        }
+
+        List<Key> allocatedKeys = null;
+        for (int attempt = 1; ; attempt++) {
+            Transaction transaction = datastore.newTransaction();
+            try {
+                // IDs are allocated once and reused if the transaction is retried
+                if (allocatedKeys == null) {
+                    allocatedKeys = newKeys.isEmpty() ? List.of()
+                            : datastore.allocateId(newKeys.toArray(new IncompleteKey[0]));
+                }
+                Iterator<Key> allocated = allocatedKeys.iterator();
+                Map<Key, Entity> existing = new HashMap<>();
+                if (!targetKeys.isEmpty()) {
+                    for (Entity entity : transaction.fetch(targetKeys.toArray(new Key[0]))) {
+                        if (entity != null) {
+                            existing.put(entity.getKey(), entity);
+                        }
+                    }
+                }
+
+                UserOperationResult[] chunkResults = new UserOperationResult[end - start];
+                List<Entity> removed = new ArrayList<>();
+                List<Entity> written = new ArrayList<>();
+                List<Key> deletes = new ArrayList<>();
+                for (int i = start; i < end; i++) {
+                    UserOperation operation = operations.get(i);
+                    if (operation.getType() == UserOperation.Type.CREATE) {
+                        Entity entity = newUser(operation.getFields()).toEntityBuilder(allocated.next()).build();
+                        written.add(entity);
+                        chunkResults[i - start] = new UserOperationResult(201, "User created", User.fromEntity(entity));
+                        continue;
+                    }
+
+                    Entity current = existing.get(keyFactory.newKey(operation.getId()));
+                    if (current == null) {
+                        chunkResults[i - start] = new UserOperationResult(404, "User not found", null);
+                    } else if (operation.getType() == UserOperation.Type.UPDATE) {
+                        Entity entity = merge(current, operation.getFields());
+                        removed.add(current);
+                        written.add(entity);
+                        chunkResults[i - start] = new UserOperationResult(200, "User updated", User.fromEntity(entity));
+                    } else {
+                        removed.add(current);
+                        deletes.add(current.getKey());
+                        chunkResults[i - start] = new UserOperationResult(200, "User deleted", null);
+                    }
+                }
+
+                if (!written.isEmpty()) {
+                    transaction.put(written.toArray(new Entity[0]));
+                }
+                if (!deletes.isEmpty()) {
+                    transaction.delete(deletes.toArray(new Key[0]));
+                }
+                transaction.commit();
+
+                System.arraycopy(chunkResults, 0, results, start, chunkResults.length);
+                removed.forEach(entity -> rollup.remove(User.fromEntity(entity)));
+                written.forEach(entity -> rollup.add(User.fromEntity(entity)));
+                return;
+            } catch (DatastoreException e) {
+                if (attempt < MODIFY_ATTEMPTS && e.isRetryable()) {
+                    continue;
+                }
+                System.err.println("Error applying batch operations " + start + "-" + (end - 1) + ": " + e.getMessage());
+                for (int i = start; i < end; i++) {
+                    results[i] = new UserOperationResult(500, "Error applying operation: " + e.getMessage(), null);
+                }
+                return;
+            } finally {
+                if (transaction.isActive()) {
+                    transaction.rollback();
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds a new user from the fields of a create operation.
+     */
+    private static User newUser(Map<String, String> fields) {
+        User user = new User();
+        user.setName(fields.get("name"));
+        user.setEmail(fields.get("email"));
+        user.setPassword(fields.get("password"));
+        user.setPhone(fields.get("phone"));
+        user.setGender(fields.get("gender"));
+        user.setAddress(fields.get("address"));
+        String dateOfBirth = fields.get("dateOfBirth");
+        if (dateOfBirth != null && !dateOfBirth.isEmpty()) {
+            user.setDateOfBirth(LocalDate.parse(dateOfBirth));
+        }
+        return user;
+    }
+
+    /**
+     * Merges patch values into a user entity and moves its version forward,
+     * even within the same millisecond.
+     */
+    private static Entity merge(Entity existing, Map<String, String> values) {
+        Entity.Builder builder = Entity.newBuilder(existing);
+        values.forEach((property, value) -> builder.set(property, value != null ? value : ""));
+        return builder.set("updatedAt", Math.max(System.currentTimeMillis(), versionOf(existing) + 1)).build();
+    }
+
+    // updatedAt of a user entity; 0 for entities written before change tracking
+    private static long versionOf(Entity entity) {
+        return entity.contains("updatedAt") ? entity.getLong("updatedAt") : 0;
+    }
+
+    /**
+     * Changes one user in a read-modify-write transaction.
+     * Datastore transactions are optimistic, so concurrent writers are never blocked; if another
+     * commit touched the user first, this one aborts and the change is re-applied to the fresh entity.
+     * @param key User key
+     * @param change Builds the new entity from the current one
+     * @return Updated User object, or null if not found
+     */
+    private User modifyUser(Key key, UnaryOperator<Entity> change) {
+        for (int attempt = 1; ; attempt++) {
+            Transaction transaction = datastore.newTransaction();
+            Entity existing;
+            Entity updated;
+            try {
+                existing = transaction.get(key);
+                if (existing == null) {
+                    return null;
+                }
+                updated = change.apply(existing);
+                transaction.put(updated);
+                transaction.commit();
+            } catch (DatastoreException e) {
+                if (attempt >= MODIFY_ATTEMPTS || !e.isRetryable()) {
+                    throw e;
+                }
+                continue;
+            } finally {
+                if (transaction.isActive()) {
+                    transaction.rollback();
+                }
+            }
+
+            // Outside the retry, so a failed version bump never re-applies a committed change
+            User updatedUser = User.fromEntity(updated);
+            // Move the user between demographic buckets
+            rollup.remove(User.fromEntity(existing));
+            rollup.add(updatedUser);
+            bumpUsersVersion();
+            return updatedUser;
+        }
     }
 
     /**
@@ -201,26 +687,141 @@ public class CloudDatastoreServiceImpl implements IUserDatastoreService {
             }
 
             datastore.delete(key);
+            rollup.remove(User.fromEntity(entity));
+            bumpUsersVersion();
             return true;
         } catch (NumberFormatException e) {
             return false;
         }
     }
 
+    /**
+     * Returns a user's updatedAt stamp through a projection query, so the entity itself is not read.
+     * @param id User ID
+     * @return updatedAt of the user, or null if the user does not exist, predates change
+     *         tracking, or the lookup failed
+     */
+    @Override
+    public Long getUserVersion(Long id) {
+        Key key = datastore.newKeyFactory().setKind(KIND).newKey(id);
+        Query<ProjectionEntity> query = Query.newProjectionEntityQueryBuilder()
+                .setKind(KIND)
+                .setFilter(StructuredQuery.PropertyFilter.eq("__key__", key))
+                .setProjection("updatedAt")
+                .build();
+        try {
+            QueryResults<ProjectionEntity> results = datastore.run(query);
+            return results.hasNext() ? results.next().getLong("updatedAt") : null;
+        } catch (DatastoreException e) {
+            // Callers fall back to loading the user
+            System.err.println("Error reading version of user " + id + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Returns the version of the user collection, creating it if no write has recorded one yet.
+     * @return Current collection version
+     */
+    @Override
+    public long getUsersVersion() {
+        Entity version = datastore.get(datastore.newKeyFactory().setKind(VERSION_KIND).newKey(KIND));
+        return version != null ? version.getLong("version") : bumpUsersVersion();
+    }
+
+    /**
+     * Replaces the collection version with a new random value.
+     * Versions only need to differ, so this is a blind write rather than a transactional
+     * increment, and concurrent writers never contend. It runs after the data write, so a
+     * reader can never see the new version with the old data. Transient failures are retried;
+     * a write whose version could not be bumped fails, since readers would otherwise keep
+     * revalidating the old list against an unchanged ETag.
+     * @return New collection version
+     * @throws DatastoreException if the version could not be written
+     */
+    private long bumpUsersVersion() {
+        long version = ThreadLocalRandom.current().nextLong();
+        Entity entity = Entity.newBuilder(datastore.newKeyFactory().setKind(VERSION_KIND).newKey(KIND))
+                .set("version", version)
+                .build();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                datastore.put(entity);
+                return version;
+            } catch (DatastoreException e) {
+                if (attempt >= MODIFY_ATTEMPTS || !e.isRetryable()) {
+                    System.err.println("Error bumping user collection version: " + e.getMessage());
+                    throw e;
+                }
+            }
+        }
+    }
+
     /**
      * Authenticates a user by email and password.
+     * Plaintext passwords stored before hashing, and hashes below the current cost,
+     * are replaced by a fresh hash in the background after a successful login.
      * @param email User email
      * @param password User password
      * @return User object if authentication succeeds, otherwise null
+     * @throws PasswordHasher.OverloadedException if too many verifications are in progress
      */
     @Override
     public User authenticateUser(String email, String password) {
         User user = getUserByEmail(email);
 
-        if (user != null && user.getPassword().equals(password)) {
-            return user;
+        // Unknown emails are verified against a dummy hash so they take as long as wrong passwords
+        if (!passwordHasher.verify(password, user != null ? user.getPassword() : null)) {
+            return null;
         }
 
-        return null;
+        if (passwordHasher.needsRehash(user.getPassword())) {
+            Long id = user.getId();
+            String previous = user.getPassword();
+            passwordHasher.hashInBackground(password)
+                    .thenAcceptAsync(hash -> rehashPassword(id, previous, hash), BATCH_EXECUTOR)
+                    .exceptionally(e -> {
+                        // The login still succeeds; the rehash is retried on the next one
+                        System.err.println("Rehash skipped for user " + id + ": " + e.getMessage());
+                        return null;
+                    });
+        }
+        return user;
+    }
+
+    /**
+     * Replaces a client-supplied password with its hash. A value already shaped like a hash
+     * is hashed too, as patchUser does, so clients cannot pick their own work factor.
+     */
+    private void hashPassword(User user) {
+        if (user.getPassword() != null) {
+            user.setPassword(passwordHasher.hash(user.getPassword()));
+        }
+    }
+
+    /**
+     * Stores a fresh hash of a verified password, unless the password changed in the meantime.
+     */
+    private void rehashPassword(Long id, String previous, String hash) {
+        Key key = datastore.newKeyFactory().setKind(KIND).newKey(id);
+
+        Transaction transaction = datastore.newTransaction();
+        try {
+            Entity entity = transaction.get(key);
+            if (entity != null && previous.equals(entity.getString("password"))) {
+                transaction.put(Entity.newBuilder(entity)
+                        .set("password", hash)
+                        .set("updatedAt", System.currentTimeMillis())
+                        .build());
+                transaction.commit();
+            }
+        } catch (Exception e) {
+            // The login still succeeds; the rehash is retried on the next one
+            System.err.println("Error rehashing password for user " + id + ": " + e.getMessage());
+        } finally {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+        }
     }
 }
@@ -0,0 +1,209 @@
+package com.spritehealth.services.impl;
+
+import com.spritehealth.models.User;
+import com.spritehealth.services.interfaces.IMigrationSink;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Base for sinks that export users as files on local disk.
+ * Each export goes to its own timestamped directory and is split into one part file per writer.
+ * Users are encoded by the pipeline's transform workers and written in batches by the sink
+ * workers, each holding one part file at a time, so encoding, compression and disk I/O all
+ * run in parallel without any file being shared between threads.
+ *
+ * @param <R> Encoded record type handed to the part writers
+ */
+public abstract class FileMigrationSink<R> implements IMigrationSink {
+    private static final int PIPELINE_QUEUE_CAPACITY = 1000;
+    private static final int TRANSFORM_WORKERS = 2;
+    private static final DateTimeFormatter DIRECTORY_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+
+    // Directory under which each export creates its own subdirectory
+    private final Path baseDirectory;
+    // Number of part files written concurrently
+    private final int writers;
+    // Records handed to a part writer at a time
+    private final int batchSize;
+
+    /**
+     * @param baseDirectory Directory under which exports are written
+     * @param writers Number of part files written concurrently
+     * @param batchSize Records handed to a part writer at a time
+     */
+    protected FileMigrationSink(Path baseDirectory, int writers, int batchSize) {
+        this.baseDirectory = baseDirectory;
+        this.writers = writers;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Writes users into part files of a new export directory. Parts left empty are removed.
+     * @param users Users to export
+     * @return Map with success, migrated, total, message, directory and files
+     */
+    @Override
+    public Map<String, Object> write(Iterator<User> users) {
+        Map<String, Object> result = new HashMap<>();
+        // The random suffix keeps exports started in the same millisecond apart
+        Path directory = baseDirectory.resolve("users-" + LocalDateTime.now().format(DIRECTORY_FORMAT)
+                + "-" + UUID.randomUUID().toString().substring(0, 8));
+        List<Part<R>> parts = new ArrayList<>();
+
+        try {
+            Files.createDirectories(baseDirectory);
+            // Fails rather than mixing parts into an existing export
+            Files.createDirectory(directory);
+            BlockingQueue<Part<R>> idle = new ArrayBlockingQueue<>(writers);
+            for (int i = 0; i < writers; i++) {
+                Path file = directory.resolve(String.format("part-%05d%s", i, getExtension()));
+                Part<R> part = new Part<>(file, openPart(file));
+                parts.add(part);
+                idle.add(part);
+            }
+
+            MigrationPipeline<User, R> pipeline = new MigrationPipeline<>(
+                    PIPELINE_QUEUE_CAPACITY, TRANSFORM_WORKERS, writers, batchSize);
+            MigrationPipeline.Result pipelineResult = pipeline.run(users, this::toRecord,
+                    batch -> writeBatch(idle, batch));
+
+            List<String> files = closeParts(parts);
+            long total = pipelineResult.getRead();
+            result.put("success", pipelineResult.isComplete());
+            result.put("aborted", pipelineResult.isAborted());
+            result.put("migrated", pipelineResult.getSucceeded());
+            result.put("total", total);
+            result.put("directory", directory.toAbsolutePath().toString());
+            result.put("files", files);
+            if (pipelineResult.isAborted()) {
+                result.put("message", "Export to " + getName() + " aborted after " + total + " users were read: "
+                        + pipelineResult.getSourceError().getMessage());
+            } else if (pipelineResult.getFailed() > 0) {
+                Exception error = pipelineResult.getFirstError();
+                result.put("message", pipelineResult.getSucceeded() + " users exported to " + getName()
+                        + " with some errors" + (error != null ? ": " + error.getMessage() : ""));
+            } else {
+                result.put("message", total + " users exported to " + getName() + " files");
+            }
+
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            System.err.println("Error during " + getName() + " export: " + e.getMessage());
+            try {
+                closeParts(parts);
+            } catch (IOException closeError) {
+                System.err.println("Error closing export files: " + closeError.getMessage());
+            }
+            result.put("success", false);
+            result.put("message", "Export failed: " + e.getMessage());
+            result.put("migrated", 0L);
+            result.put("total", 0L);
+        }
+        return result;
+    }
+
+    /**
+     * Writes a batch to whichever part file is idle.
+     * @return Number of records that failed, always 0; a failed write throws and fails the batch
+     */
+    private int writeBatch(BlockingQueue<Part<R>> idle, List<R> batch) {
+        Part<R> part;
+        try {
+            part = idle.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return batch.size();
+        }
+        try {
+            part.writer.write(batch);
+            part.records += batch.size();
+            return 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            idle.add(part);
+        }
+    }
+
+    /**
+     * Closes every part, deleting the ones that received no records.
+     * @return Names of the files kept
+     */
+    private List<String> closeParts(List<Part<R>> parts) throws IOException {
+        List<String> files = new ArrayList<>();
+        IOException firstError = null;
+        for (Part<R> part : parts) {
+            try {
+                part.writer.close();
+                if (part.records == 0) {
+                    Files.deleteIfExists(part.file);
+                } else {
+                    files.add(part.file.getFileName().toString());
+                }
+            } catch (IOException e) {
+                firstError = firstError == null ? e : firstError;
+            }
+        }
+        if (firstError != null) {
+            throw firstError;
+        }
+        return files;
+    }
+
+    /**
+     * @return Suffix of part file names, e.g. ".parquet"
+     */
+    protected abstract String getExtension();
+
+    /**
+     * Encodes a user; runs on the pipeline's transform workers.
+     * @param user User to encode
+     * @return Encoded record
+     */
+    protected abstract R toRecord(User user);
+
+    /**
+     * Opens a part file for writing.
+     * @param file Path of the part file
+     * @return Writer owning the file until closed
+     * @throws IOException if the file cannot be created
+     */
+    protected abstract PartWriter<R> openPart(Path file) throws IOException;
+
+    /**
+     * Writes encoded records to one part file. Never used by two threads at once.
+     *
+     * @param <R> Encoded record type
+     */
+    protected interface PartWriter<R> extends Closeable {
+        void write(List<R> records) throws IOException;
+    }
+
+    private static class Part<R> {
+        private final Path file;
+        private final PartWriter<R> writer;
+        // Only updated by the thread holding the part; the idle queue hands it over safely
+        private long records;
+
+        Part(Path file, PartWriter<R> writer) {
+            this.file = file;
+            this.writer = writer;
+        }
+    }
+}
@@ -0,0 +1,419 @@
+package com.spritehealth.services.impl;
+
+import com.spritehealth.models.MigrationJob;
+import com.spritehealth.models.UserPage;
+import com.spritehealth.services.interfaces.IBigQueryService;
+import com.spritehealth.services.interfaces.IMigrationJobService;
+import com.spritehealth.services.interfaces.IMigrationSink;
+import com.spritehealth.services.interfaces.IReconciliationService;
+import com.spritehealth.services.interfaces.IUserDatastoreService;
+import com.spritehealth.utils.GsonProvider;
+import com.spritehealth.utils.MigrationStateManager;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs migrations as background jobs.
+ * A job reads changed users from Datastore in cursor-delimited chunks, streams each chunk
+ * into BigQuery and checkpoints the cursor and counters after it. A job whose heartbeat
+ * goes stale (its instance stopped) is claimed by another instance and resumed from that cursor.
+ * Verifications and exports run as jobs on the same table lock, with a heartbeat instead of
+ * chunk checkpoints, and are rerun from the start when resumed.
+ */
+public class MigrationJobServiceImpl implements IMigrationJobService {
+    // Users read from Datastore and shipped per checkpoint
+    private static final int CHUNK_SIZE = 2000;
+    // A running job without a checkpoint for this long is considered orphaned
+    private static final long STALE_AFTER_MILLIS = 2 * 60 * 1000;
+    // Heartbeat interval of jobs without chunk checkpoints, well inside STALE_AFTER_MILLIS
+    private static final long HEARTBEAT_MILLIS = 30 * 1000;
+    // Directory that file exports are written under
+    private static final Path EXPORT_DIRECTORY = Paths.get(System.getenv().getOrDefault("EXPORT_DIR",
+            Paths.get(System.getProperty("java.io.tmpdir"), "spritehealth-exports").toString()));
+    // How far the watermark stays behind the job's start. updatedAt is stamped by the writing
+    // instance's clock before commit, so a row can become visible after later-stamped rows
+    // were shipped; rows within the lag are shipped again by the next run and de-duplicated
+    // by readers, which keep the latest row per ID
+    private static final long WATERMARK_LAG_MILLIS =
+            Long.parseLong(System.getenv().getOrDefault("MIGRATION_WATERMARK_LAG_MILLIS", "300000"));
+
+    private final IUserDatastoreService datastoreService;
+    private final IBigQueryService bigQueryService;
+    // Destination of each chunk; watermarks and jobs are tracked per BigQuery table
+    private final IMigrationSink sink;
+    // Runs verification jobs
+    private final IReconciliationService reconciliationService;
+    private final MigrationStateManager stateManager;
+    // Background workers; threads are daemons so they never block shutdown
+    private final ExecutorService executor;
+    // Refreshes the heartbeat of running verification jobs
+    private final ScheduledExecutorService heartbeats;
+    // IDs of jobs executing on this instance
+    private final Set<String> localJobs = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param datastoreService Source of users
+     * @param bigQueryService Destination of users
+     * @param stateManager Persistence for jobs and watermarks
+     */
+    public MigrationJobServiceImpl(IUserDatastoreService datastoreService,
+                                   IBigQueryService bigQueryService,
+                                   MigrationStateManager stateManager) {
+        this.datastoreService = datastoreService;
+        this.bigQueryService = bigQueryService;
+        this.sink = new BigQueryMigrationSink(bigQueryService);
+        this.reconciliationService = new ReconciliationServiceImpl(datastoreService, bigQueryService);
+        this.stateManager = stateManager;
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "migration-job");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.heartbeats = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "migration-job-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts a new job, or takes over the table's active job if it was orphaned.
+     * @return The job now running
+     */
+    @Override
+    public MigrationJob startMigration() {
+        MigrationJob active = stateManager.getActiveJob(bigQueryService.getTableName());
+        if (active != null && active.isRunning() && isOrphaned(active) && stateManager.claimJob(active)) {
+            submit(active);
+            return active;
+        }
+
+        MigrationJob job = stateManager.createJob(bigQueryService.getTableName());
+        submit(job);
+        return job;
+    }
+
+    /**
+     * Starts a verification job; it holds the table so no migration runs underneath it.
+     * @param repair true to re-ship differing users
+     * @return The job now running
+     */
+    @Override
+    public MigrationJob startVerification(boolean repair) {
+        MigrationJob job = stateManager.createJob(bigQueryService.getTableName(),
+                MigrationJob.TYPE_VERIFY, repair ? "repair" : "");
+        submit(job);
+        return job;
+    }
+
+    @Override
+    public boolean isExportFormat(String format) {
+        return createSink(format) != null;
+    }
+
+    /**
+     * Starts an export job. Every format holds the table, so a BigQuery export cannot race a
+     * migration writing the same table.
+     * @param format Sink name
+     * @return The job now running
+     */
+    @Override
+    public MigrationJob startExport(String format) {
+        if (!isExportFormat(format)) {
+            throw new IllegalArgumentException("Unknown export format: " + format);
+        }
+        MigrationJob job = stateManager.createJob(bigQueryService.getTableName(), MigrationJob.TYPE_EXPORT, format);
+        submit(job);
+        return job;
+    }
+
+    @Override
+    public MigrationJob getJob(String jobId) {
+        return stateManager.getJob(jobId);
+    }
+
+    @Override
+    public MigrationJob getActiveJob() {
+        return stateManager.getActiveJob(bigQueryService.getTableName());
+    }
+
+    /**
+     * Flags the job for cancellation. A job with no live worker is finalized immediately.
+     * @param jobId Job ID
+     * @return The job, or null if not found
+     */
+    @Override
+    public MigrationJob cancelJob(String jobId) {
+        MigrationJob job = stateManager.requestCancel(jobId);
+        if (job != null && job.isRunning() && isOrphaned(job) && stateManager.claimJob(job)) {
+            job.setStatus(MigrationJob.STATUS_CANCELLED);
+            job.setMessage("Migration cancelled");
+            stateManager.finishJob(job, null);
+        }
+        return job;
+    }
+
+    /**
+     * Claims and resumes every running job whose worker has stopped checkpointing.
+     */
+    @Override
+    public void resumeOrphanedJobs() {
+        try {
+            for (MigrationJob job : stateManager.getRunningJobs()) {
+                if (isOrphaned(job) && stateManager.claimJob(job)) {
+                    System.out.println("Resuming orphaned migration job: " + job.getId());
+                    submit(job);
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Error resuming migration jobs: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        heartbeats.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    /**
+     * A job is orphaned if no instance runs it locally and its heartbeat is stale.
+     */
+    private boolean isOrphaned(MigrationJob job) {
+        return !localJobs.contains(job.getId())
+                && System.currentTimeMillis() - job.getHeartbeatAt() > STALE_AFTER_MILLIS;
+    }
+
+    private void submit(MigrationJob job) {
+        localJobs.add(job.getId());
+        executor.execute(() -> {
+            try {
+                if (MigrationJob.TYPE_MIGRATE.equals(job.getType())) {
+                    run(job);
+                } else {
+                    runTask(job);
+                }
+            } finally {
+                localJobs.remove(job.getId());
+            }
+        });
+    }
+
+    /**
+     * Ships the job's remaining chunks, checkpointing after each, then records the outcome.
+     * The watermark only advances when every row of the run landed, and never past the
+     * job's start less WATERMARK_LAG_MILLIS.
+     */
+    private void run(MigrationJob job) {
+        try {
+            while (true) {
+                job = stateManager.checkpoint(job);
+                if (job.isCancelRequested()) {
+                    job.setStatus(MigrationJob.STATUS_CANCELLED);
+                    job.setMessage("Migration cancelled after " + job.getMigrated() + " users");
+                    break;
+                }
+
+                UserPage page = datastoreService.getUsersUpdatedSince(
+                        job.getStartWatermark(), job.getCursor(), CHUNK_SIZE);
+                if (page.getUsers().isEmpty()) {
+                    break;
+                }
+
+                Map<String, Object> result = sink.write(page.getUsers().iterator());
+                if (Thread.currentThread().isInterrupted()) {
+                    // Instance is shutting down; the last checkpoint is where another instance resumes
+                    System.out.println("Migration job " + job.getId() + " interrupted, leaving it for resume");
+                    return;
+                }
+                long migrated = ((Number) result.get("migrated")).longValue();
+                job.setMigrated(job.getMigrated() + migrated);
+                job.setFailed(job.getFailed() + page.getUsers().size() - migrated);
+                if (result.get("maxUpdatedAt") != null) {
+                    job.setMaxUpdatedAt(Math.max(job.getMaxUpdatedAt(), (Long) result.get("maxUpdatedAt")));
+                }
+                job.setCursor(page.getNextCursor());
+
+                if (page.getUsers().size() < CHUNK_SIZE) {
+                    break;
+                }
+            }
+
+            Long newWatermark = null;
+            if (!MigrationJob.STATUS_CANCELLED.equals(job.getStatus())) {
+                job.setStatus(MigrationJob.STATUS_COMPLETED);
+                if (job.getFailed() == 0) {
+                    // Legacy entities carry no updatedAt; the scan itself covered everything before it started
+                    long shipped = job.getMaxUpdatedAt() == 0 ? job.getCreatedAt() : job.getMaxUpdatedAt();
+                    long settled = job.getCreatedAt() - WATERMARK_LAG_MILLIS;
+                    newWatermark = Math.max(job.getStartWatermark(), Math.min(shipped, settled));
+                    job.setMessage(job.getMigrated() + " users successfully migrated to BigQuery");
+                } else {
+                    job.setMessage(job.getMigrated() + " users migrated to BigQuery with "
+                            + job.getFailed() + " errors");
+                }
+            }
+            stateManager.finishJob(job, newWatermark);
+
+            if (MigrationJob.STATUS_COMPLETED.equals(job.getStatus()) && job.getMigrated() > 0) {
+                refreshRollups(job);
+            }
+
+        } catch (MigrationStateManager.JobTakenOverException e) {
+            // This worker stalled past STALE_AFTER_MILLIS and another instance claimed the job
+            System.out.println("Migration job " + job.getId() + " taken over, stopping this worker");
+        } catch (Exception e) {
+            System.err.println("Migration job " + job.getId() + " failed: " + e.getMessage());
+            job.setStatus(MigrationJob.STATUS_FAILED);
+            job.setMessage("Migration failed: " + e.getMessage());
+            try {
+                stateManager.finishJob(job, null);
+            } catch (Exception finishError) {
+                // Left running with a stale heartbeat; another instance will resume it
+                System.err.println("Error recording failed migration job: " + finishError.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Runs a job that has no chunks to checkpoint, such as a verification, and records its result.
+     * A heartbeat keeps the job from being taken over as orphaned while it runs and interrupts
+     * the worker once cancellation is requested, or once another instance has claimed the job.
+     * A job interrupted by shutdown is left running, to be rerun from the start by whichever
+     * instance resumes it.
+     */
+    private void runTask(MigrationJob job) {
+        Thread worker = Thread.currentThread();
+        // Guarded by the job; once set, the heartbeat no longer writes the job
+        boolean[] finished = {false};
+        // Guarded by the job; set when another instance claimed the job
+        boolean[] takenOver = {false};
+        ScheduledFuture<?> heartbeat = heartbeats.scheduleWithFixedDelay(() -> {
+            synchronized (job) {
+                if (finished[0]) {
+                    return;
+                }
+                try {
+                    stateManager.checkpoint(job);
+                    if (job.isCancelRequested()) {
+                        worker.interrupt();
+                    }
+                } catch (MigrationStateManager.JobTakenOverException e) {
+                    takenOver[0] = true;
+                    finished[0] = true;
+                    worker.interrupt();
+                } catch (Exception e) {
+                    System.err.println("Error refreshing heartbeat of job " + job.getId() + ": " + e.getMessage());
+                }
+            }
+        }, HEARTBEAT_MILLIS, HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+
+        Map<String, Object> result = null;
+        Exception error = null;
+        try {
+            result = runTaskBody(job);
+        } catch (Exception e) {
+            error = e;
+        } finally {
+            heartbeat.cancel(false);
+            synchronized (job) {
+                finished[0] = true;
+            }
+        }
+
+        // Clear the interrupt so the final state can still be written
+        boolean interrupted = Thread.interrupted() || error instanceof InterruptedException;
+        synchronized (job) {
+            if (takenOver[0]) {
+                System.out.println("Job " + job.getId() + " taken over, stopping this worker");
+                return;
+            }
+        }
+        if (interrupted && !job.isCancelRequested()) {
+            System.out.println("Job " + job.getId() + " interrupted, leaving it for resume");
+            return;
+        }
+
+        if (job.isCancelRequested()) {
+            job.setStatus(MigrationJob.STATUS_CANCELLED);
+            job.setMessage("Job cancelled");
+        } else if (error != null) {
+            System.err.println("Job " + job.getId() + " failed: " + error.getMessage());
+            job.setStatus(MigrationJob.STATUS_FAILED);
+            job.setMessage("Job failed: " + error.getMessage());
+        } else {
+            job.setStatus(Boolean.TRUE.equals(result.get("success"))
+                    ? MigrationJob.STATUS_COMPLETED : MigrationJob.STATUS_FAILED);
+            job.setMessage(String.valueOf(result.get("message")));
+            job.setResult(GsonProvider.getGson().toJsonTree(result).getAsJsonObject());
+        }
+        try {
+            stateManager.finishJob(job, null);
+        } catch (Exception finishError) {
+            // Left running with a stale heartbeat; another instance will rerun it
+            System.err.println("Error recording finished job " + job.getId() + ": " + finishError.getMessage());
+        }
+    }
+
+    /**
+     * Does the work of a non-migration job.
+     * @return Result map with at least success and message
+     */
+    private Map<String, Object> runTaskBody(MigrationJob job) throws Exception {
+        if (MigrationJob.TYPE_VERIFY.equals(job.getType())) {
+            return reconciliationService.verify("repair".equals(job.getOptions()));
+        }
+        if (MigrationJob.TYPE_EXPORT.equals(job.getType())) {
+            IMigrationSink exportSink = createSink(job.getOptions());
+            if (exportSink == null) {
+                throw new IllegalStateException("Unknown export format: " + job.getOptions());
+            }
+            Map<String, Object> result = exportSink.write(datastoreService.iterateUsersUpdatedSince(0));
+            result.put("format", exportSink.getName());
+            job.setMigrated(((Number) result.get("migrated")).longValue());
+            job.setFailed(((Number) result.get("total")).longValue() - job.getMigrated());
+            return result;
+        }
+        throw new IllegalStateException("Unknown job type: " + job.getType());
+    }
+
+    /**
+     * Creates the sink for an export format.
+     * @param format Sink name; file formats write one part per available processor
+     * @return Sink, or null if the format is unknown
+     */
+    private IMigrationSink createSink(String format) {
+        int writers = Runtime.getRuntime().availableProcessors();
+        if (BigQueryMigrationSink.NAME.equals(format)) {
+            return new BigQueryMigrationSink(bigQueryService);
+        } else if (NdjsonMigrationSink.NAME.equals(format)) {
+            return new NdjsonMigrationSink(EXPORT_DIRECTORY, writers);
+        } else if (ParquetMigrationSink.NAME.equals(format)) {
+            return new ParquetMigrationSink(EXPORT_DIRECTORY, writers);
+        }
+        return null;
+    }
+
+    /**
+     * Recomputes the warehouse demographic rollups once new rows have landed.
+     * A failure only leaves the previous rollups in place.
+     */
+    private void refreshRollups(MigrationJob job) {
+        try {
+            bigQueryService.refreshDemographicRollups();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            System.err.println("Error refreshing demographic rollups after job " + job.getId() + ": " + e.getMessage());
+        }
+    }
+}
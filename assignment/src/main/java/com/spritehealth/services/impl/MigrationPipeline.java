@@ -0,0 +1,230 @@
+package com.spritehealth.services.impl;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * Bounded producer/transform/sink pipeline used to stream records from Datastore into BigQuery.
+ * The calling thread drains the source iterator into a bounded queue, transform workers map
+ * records into rows, and sink workers flush rows in fixed-size batches. Every hand-off blocks
+ * when the next stage is full, so memory stays constant regardless of how many records flow through.
+ *
+ * @param <S> Source record type
+ * @param <R> Row type handed to the sink
+ */
+public class MigrationPipeline<S, R> {
+    // Marker placed on a queue to tell the consuming stage there is no more input
+    private static final Object END = new Object();
+
+    private final int queueCapacity;
+    private final int transformWorkers;
+    private final int sinkWorkers;
+    private final int batchSize;
+
+    /**
+     * @param queueCapacity Capacity of each hand-off queue
+     * @param transformWorkers Number of threads mapping records to rows
+     * @param sinkWorkers Number of threads flushing row batches
+     * @param batchSize Number of rows per sink flush
+     */
+    public MigrationPipeline(int queueCapacity, int transformWorkers, int sinkWorkers, int batchSize) {
+        this.queueCapacity = queueCapacity;
+        this.transformWorkers = transformWorkers;
+        this.sinkWorkers = sinkWorkers;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Runs the pipeline to completion.
+     * @param source Iterator producing source records; consumed on the calling thread
+     * @param transform Maps a source record to a sink row
+     * @param sink Writes a batch of rows and returns the number of rows that failed
+     * @return Counts of records read and rows that failed, and whether the source stopped short
+     * @throws InterruptedException if the calling thread is interrupted while waiting
+     */
+    public Result run(Iterator<S> source, Function<S, R> transform, ToIntFunction<List<R>> sink)
+            throws InterruptedException {
+        BlockingQueue<Object> sourceQueue = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Object> rowQueue = new ArrayBlockingQueue<>(queueCapacity);
+        AtomicInteger remainingTransformers = new AtomicInteger(transformWorkers);
+        AtomicLong read = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        AtomicReference<Exception> firstError = new AtomicReference<>();
+        // Set when the source fails, so the run is known to have stopped short
+        AtomicReference<Exception> sourceError = new AtomicReference<>();
+
+        ExecutorService executor = Executors.newFixedThreadPool(transformWorkers + sinkWorkers);
+        try {
+            // Transform stage: map records to rows until the source is exhausted
+            for (int i = 0; i < transformWorkers; i++) {
+                executor.execute(() -> {
+                    try {
+                        Object item;
+                        while ((item = sourceQueue.take()) != END) {
+                            @SuppressWarnings("unchecked")
+                            S record = (S) item;
+                            try {
+                                rowQueue.put(transform.apply(record));
+                            } catch (RuntimeException e) {
+                                failed.incrementAndGet();
+                                firstError.compareAndSet(null, e);
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        // The last transformer to finish releases every sink worker
+                        if (remainingTransformers.decrementAndGet() == 0) {
+                            for (int j = 0; j < sinkWorkers; j++) {
+                                putQuietly(rowQueue, END);
+                            }
+                        }
+                    }
+                });
+            }
+
+            // Sink stage: accumulate rows and flush full batches
+            for (int i = 0; i < sinkWorkers; i++) {
+                executor.execute(() -> {
+                    List<R> batch = new ArrayList<>(batchSize);
+                    try {
+                        Object item;
+                        while ((item = rowQueue.take()) != END) {
+                            @SuppressWarnings("unchecked")
+                            R row = (R) item;
+                            batch.add(row);
+                            if (batch.size() >= batchSize) {
+                                flush(batch, sink, failed, firstError);
+                            }
+                        }
+                        flush(batch, sink, failed, firstError);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+
+            // Source stage: runs on the caller so the Datastore cursor stays on one thread
+            try {
+                while (source.hasNext()) {
+                    sourceQueue.put(source.next());
+                    read.incrementAndGet();
+                }
+            } catch (RuntimeException e) {
+                sourceError.set(e);
+                firstError.compareAndSet(null, e);
+            } finally {
+                for (int i = 0; i < transformWorkers; i++) {
+                    putQuietly(sourceQueue, END);
+                }
+            }
+
+            executor.shutdown();
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                System.out.println("Waiting for migration pipeline to drain...");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return new Result(read.get(), failed.get(), firstError.get(), sourceError.get());
+    }
+
+    /**
+     * Sends a batch to the sink and clears it, recording failures instead of aborting the stage.
+     */
+    private void flush(List<R> batch, ToIntFunction<List<R>> sink,
+                       AtomicLong failed, AtomicReference<Exception> firstError) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            failed.addAndGet(sink.applyAsInt(batch));
+        } catch (RuntimeException e) {
+            failed.addAndGet(batch.size());
+            firstError.compareAndSet(null, e);
+        }
+        batch.clear();
+    }
+
+    /**
+     * Puts an end marker, retrying if interrupted so downstream stages always terminate.
+     */
+    private static void putQuietly(BlockingQueue<Object> queue, Object item) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(item);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Outcome of a pipeline run.
+     */
+    public static class Result {
+        private final long read;
+        private final long failed;
+        private final Exception firstError;
+        private final Exception sourceError;
+
+        Result(long read, long failed, Exception firstError, Exception sourceError) {
+            this.read = read;
+            this.failed = failed;
+            this.firstError = firstError;
+            this.sourceError = sourceError;
+        }
+
+        public long getRead() {
+            return read;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        public long getSucceeded() {
+            return read - failed;
+        }
+
+        public Exception getFirstError() {
+            return firstError;
+        }
+
+        /**
+         * @return true if the source failed before it was exhausted, so records after the
+         *         ones read were never seen
+         */
+        public boolean isAborted() {
+            return sourceError != null;
+        }
+
+        public Exception getSourceError() {
+            return sourceError;
+        }
+
+        /**
+         * @return true if the source was read to the end and every row landed
+         */
+        public boolean isComplete() {
+            return sourceError == null && failed == 0;
+        }
+    }
+}
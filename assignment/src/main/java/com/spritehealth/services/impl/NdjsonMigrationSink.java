@@ -0,0 +1,89 @@
+package com.spritehealth.services.impl;
+
+import com.google.gson.stream.JsonWriter;
+import com.spritehealth.models.User;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Sink that exports users as gzip-compressed newline-delimited JSON, one object per line.
+ * Passwords are not exported.
+ */
+public class NdjsonMigrationSink extends FileMigrationSink<String> {
+    public static final String NAME = "ndjson";
+
+    private static final int BATCH_SIZE = 1000;
+    // Buffer in front of the compressor, sized so each batch is compressed in a few large chunks
+    private static final int BUFFER_BYTES = 256 * 1024;
+
+    /**
+     * @param baseDirectory Directory under which exports are written
+     * @param writers Number of part files written concurrently
+     */
+    public NdjsonMigrationSink(Path baseDirectory, int writers) {
+        super(baseDirectory, writers, BATCH_SIZE);
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    protected String getExtension() {
+        return ".ndjson.gz";
+    }
+
+    @Override
+    protected String toRecord(User user) {
+        StringWriter line = new StringWriter();
+        try (JsonWriter writer = new JsonWriter(line)) {
+            writer.beginObject();
+            writer.name("id").value(user.getId());
+            writer.name("name").value(user.getName());
+            writer.name("email").value(user.getEmail());
+            writer.name("phone").value(user.getPhone());
+            writer.name("gender").value(user.getGender());
+            writer.name("address").value(user.getAddress());
+            writer.name("dateOfBirth").value(user.getDateOfBirth() != null
+                    ? user.getDateOfBirth().toString() : null);
+            writer.name("updatedAt").value(user.getUpdatedAt());
+            writer.endObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return line.toString();
+    }
+
+    @Override
+    protected PartWriter<String> openPart(Path file) throws IOException {
+        Writer out = new BufferedWriter(new OutputStreamWriter(
+                new GZIPOutputStream(Files.newOutputStream(file), BUFFER_BYTES),
+                StandardCharsets.UTF_8), BUFFER_BYTES);
+
+        return new PartWriter<String>() {
+            @Override
+            public void write(List<String> records) throws IOException {
+                for (String record : records) {
+                    out.write(record);
+                    out.write('\n');
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                out.close();
+            }
+        };
+    }
+}
@@ -0,0 +1,272 @@
+package com.spritehealth.services.impl;
+
+import com.spritehealth.models.KeyRange;
+import com.spritehealth.models.User;
+import com.spritehealth.services.interfaces.IBigQueryService;
+import com.spritehealth.services.interfaces.IReconciliationService;
+import com.spritehealth.services.interfaces.IUserDatastoreService;
+import com.spritehealth.utils.UserChecksum;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Verifies a migration by comparing checksums of ID ranges instead of every row.
+ * Each round computes the count and XOR of row fingerprints per range on both sides,
+ * with one aggregate query in BigQuery and a parallel key-range scan of Datastore.
+ * Matching ranges are dropped, differing ranges are split and compared again, and
+ * ranges narrow enough are compared row by row. Only the rows that differ are re-shipped.
+ */
+public class ReconciliationServiceImpl implements IReconciliationService {
+    // Ranges compared in the first round, also the Datastore scan parallelism of the full pass
+    private static final int INITIAL_RANGES = 64;
+    // Sub-ranges a differing range is split into
+    private static final int FANOUT = 16;
+    // Ranges with at most this many rows on either side are compared row by row
+    private static final int LEAF_ROWS = 500;
+    // Upper bound on rows fingerprinted per BigQuery row-level query
+    private static final int LEAF_BATCH_ROWS = 20000;
+    // Concurrent Datastore range scans
+    private static final int SCAN_THREADS = 8;
+
+    private final IUserDatastoreService datastoreService;
+    private final IBigQueryService bigQueryService;
+
+    /**
+     * @param datastoreService Source of truth
+     * @param bigQueryService Migrated copy to verify
+     */
+    public ReconciliationServiceImpl(IUserDatastoreService datastoreService, IBigQueryService bigQueryService) {
+        this.datastoreService = datastoreService;
+        this.bigQueryService = bigQueryService;
+    }
+
+    /**
+     * Compares both sides range by range, drilling down only where they differ.
+     * Users missing or different in BigQuery are migrated again when repairing; users only
+     * in BigQuery (deleted from Datastore) are reported, as the table is append-only.
+     * @param repair true to re-ship missing and mismatched users
+     * @return Map with success, matched, rounds, rangesCompared, missing, mismatched, extra,
+     *         repaired, durationMillis and message
+     */
+    @Override
+    public Map<String, Object> verify(boolean repair) throws InterruptedException {
+        long startedAt = System.currentTimeMillis();
+        Stats stats = new Stats();
+        ExecutorService executor = Executors.newFixedThreadPool(SCAN_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "reconciliation-scan");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            List<KeyRange> ranges = initialRanges();
+            while (!ranges.isEmpty()) {
+                stats.rounds++;
+                stats.rangesCompared += ranges.size();
+
+                List<KeyRange> warehouse = bigQueryService.checksumRanges(ranges);
+                List<KeyRange> source = checksumDatastore(warehouse, executor);
+
+                List<KeyRange> next = new ArrayList<>();
+                List<KeyRange> leaves = new ArrayList<>();
+                for (int i = 0; i < source.size(); i++) {
+                    KeyRange sourceRange = source.get(i);
+                    KeyRange warehouseRange = warehouse.get(i);
+                    if (sourceRange.matches(warehouseRange)) {
+                        continue;
+                    }
+                    if (warehouseRange.getCount() == 0) {
+                        // Nothing migrated in this range: every user is missing, no need to drill down
+                        stats.missing.add(sourceRange.getCount());
+                        if (repair) {
+                            recordRepair(stats, bigQueryService.migrateUsers(
+                                    datastoreService.iterateUsersInKeyRange(sourceRange.getStart(), sourceRange.getEnd())));
+                        }
+                    } else if (sourceRange.getCount() == 0) {
+                        stats.extra += warehouseRange.getCount();
+                    } else if (Math.max(sourceRange.getCount(), warehouseRange.getCount()) <= LEAF_ROWS
+                            || sourceRange.getEnd() - sourceRange.getStart() <= FANOUT) {
+                        leaves.add(warehouseRange);
+                    } else {
+                        next.addAll(sourceRange.split(FANOUT));
+                    }
+                }
+
+                compareLeaves(leaves, repair, stats, executor);
+                ranges = next;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (stats.repaired > 0) {
+            bigQueryService.refreshDemographicRollups();
+        }
+
+        boolean matched = stats.missing.sum() == 0 && stats.mismatched.sum() == 0 && stats.extra == 0;
+        Map<String, Object> result = new HashMap<>();
+        result.put("success", stats.repairError == null);
+        result.put("matched", matched);
+        result.put("rounds", stats.rounds);
+        result.put("rangesCompared", stats.rangesCompared);
+        result.put("missing", stats.missing.sum());
+        result.put("mismatched", stats.mismatched.sum());
+        result.put("extra", stats.extra);
+        result.put("repaired", stats.repaired);
+        result.put("durationMillis", System.currentTimeMillis() - startedAt);
+        result.put("message", matched
+                ? "BigQuery matches Datastore"
+                : stats.missing.sum() + " missing, " + stats.mismatched.sum() + " mismatched and "
+                        + stats.extra + " extra users in BigQuery"
+                        + (repair ? "; " + stats.repaired + " users re-migrated" : "")
+                        + (stats.repairError != null ? "; repair incomplete: " + stats.repairError : ""));
+        return result;
+    }
+
+    /**
+     * Splits the migrated ID span evenly, with open ranges on either side for IDs outside it.
+     * An empty table gets a single range covering every ID, which is then shipped whole.
+     */
+    private List<KeyRange> initialRanges() throws InterruptedException {
+        long[] bounds = bigQueryService.getIdBounds();
+        if (bounds == null) {
+            List<KeyRange> all = new ArrayList<>();
+            all.add(new KeyRange(1, Long.MAX_VALUE));
+            return all;
+        }
+
+        List<KeyRange> ranges = new ArrayList<>();
+        if (bounds[0] > 1) {
+            ranges.add(new KeyRange(1, bounds[0]));
+        }
+        long spanEnd = bounds[1] == Long.MAX_VALUE ? Long.MAX_VALUE : bounds[1] + 1;
+        ranges.addAll(new KeyRange(bounds[0], spanEnd).split(INITIAL_RANGES));
+        if (spanEnd < Long.MAX_VALUE) {
+            ranges.add(new KeyRange(spanEnd, Long.MAX_VALUE));
+        }
+        return ranges;
+    }
+
+    /**
+     * Checksums each range in Datastore, scanning ranges concurrently.
+     * @return One checksum per range, in the same order
+     */
+    private List<KeyRange> checksumDatastore(List<KeyRange> ranges, ExecutorService executor)
+            throws InterruptedException {
+        List<Future<KeyRange>> futures = new ArrayList<>();
+        for (KeyRange range : ranges) {
+            futures.add(executor.submit(() -> {
+                KeyRange checksum = new KeyRange(range.getStart(), range.getEnd());
+                Iterator<User> users = datastoreService.iterateUsersInKeyRange(range.getStart(), range.getEnd());
+                while (users.hasNext()) {
+                    checksum.add(UserChecksum.fingerprint(users.next()));
+                }
+                return checksum;
+            }));
+        }
+        List<KeyRange> checksums = new ArrayList<>();
+        for (Future<KeyRange> future : futures) {
+            checksums.add(await(future));
+        }
+        return checksums;
+    }
+
+    /**
+     * Compares narrow ranges row by row in batches, re-shipping rows that are missing or differ.
+     */
+    private void compareLeaves(List<KeyRange> leaves, boolean repair, Stats stats, ExecutorService executor)
+            throws InterruptedException {
+        int from = 0;
+        while (from < leaves.size()) {
+            // Batch leaves up to LEAF_BATCH_ROWS warehouse rows so each query result stays small
+            int to = from;
+            long rows = 0;
+            while (to < leaves.size() && (to == from || rows + leaves.get(to).getCount() <= LEAF_BATCH_ROWS)) {
+                rows += leaves.get(to).getCount();
+                to++;
+            }
+            List<KeyRange> batch = leaves.subList(from, to);
+            from = to;
+
+            Map<Long, Long> warehouseRows = new ConcurrentHashMap<>(bigQueryService.fingerprintRows(batch));
+            List<Future<List<User>>> futures = new ArrayList<>();
+            for (KeyRange leaf : batch) {
+                futures.add(executor.submit(() -> diffLeaf(leaf, warehouseRows, stats)));
+            }
+            List<User> toShip = new ArrayList<>();
+            for (Future<List<User>> future : futures) {
+                toShip.addAll(await(future));
+            }
+            // Whatever Datastore did not claim exists only in BigQuery
+            stats.extra += warehouseRows.size();
+
+            if (repair && !toShip.isEmpty()) {
+                recordRepair(stats, bigQueryService.migrateUsers(toShip.iterator()));
+            }
+        }
+    }
+
+    /**
+     * Counts the users a repair re-shipped, and keeps the first failed or aborted repair,
+     * so a partial repair is not reported as a clean one.
+     */
+    private static void recordRepair(Stats stats, Map<String, Object> migrationResult) {
+        stats.repaired += ((Number) migrationResult.get("migrated")).longValue();
+        if (!Boolean.TRUE.equals(migrationResult.get("success")) && stats.repairError == null) {
+            stats.repairError = String.valueOf(migrationResult.get("message"));
+        }
+    }
+
+    /**
+     * Scans one leaf range in Datastore, removing each matched ID from warehouseRows.
+     * @return Users missing from BigQuery or whose latest row differs
+     */
+    private List<User> diffLeaf(KeyRange leaf, Map<Long, Long> warehouseRows, Stats stats) {
+        List<User> differing = new ArrayList<>();
+        Iterator<User> users = datastoreService.iterateUsersInKeyRange(leaf.getStart(), leaf.getEnd());
+        while (users.hasNext()) {
+            User user = users.next();
+            Long warehouseFingerprint = warehouseRows.remove(user.getId());
+            if (warehouseFingerprint == null) {
+                stats.missing.increment();
+                differing.add(user);
+            } else if (warehouseFingerprint != UserChecksum.fingerprint(user)) {
+                stats.mismatched.increment();
+                differing.add(user);
+            }
+        }
+        return differing;
+    }
+
+    private static <T> T await(Future<T> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Datastore scan failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Counters of one verification run.
+     */
+    private static class Stats {
+        private int rounds;
+        private long rangesCompared;
+        private final LongAdder missing = new LongAdder();
+        private final LongAdder mismatched = new LongAdder();
+        private long extra;
+        private long repaired;
+        // Message of the first repair that did not land completely
+        private String repairError;
+    }
+}
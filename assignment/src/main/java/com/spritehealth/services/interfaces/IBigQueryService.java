@@ -1,8 +1,13 @@
 package com.spritehealth.services.interfaces;
 
+import com.spritehealth.models.KeyRange;
 import com.spritehealth.models.User;
+import com.spritehealth.models.UserQuery;
+import java.io.IOException;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * Interface for BigQuery operations
@@ -19,6 +24,12 @@ public interface IBigQueryService {
      */
     void createTableIfNotExists();
     
+    /**
+     * Get the name of the destination table
+     * @return BigQuery table name
+     */
+    String getTableName();
+    
     /**
      * Check if table exists
      * @return true if table exists, false otherwise
@@ -32,10 +43,72 @@ public interface IBigQueryService {
      */
     Map<String, Object> migrateUsers(List<User> users);
     
+    /**
+     * Stream users from Datastore to BigQuery with bounded memory
+     * @param users Iterator over users to migrate
+     * @return Map with migration results, including the highest updatedAt shipped
+     */
+    Map<String, Object> migrateUsers(Iterator<User> users);
+    
     /**
      * Query users from BigQuery
      * @param limit Maximum number of users to retrieve
      * @return List of users
      */
     List<User> queryUsers(int limit);
+    
+    /**
+     * Query one page of users with filters and ordering bound as parameters
+     * @param query Filters, ordering, page size and optional page token
+     * @param consumer Receives each user as it is read from the result page
+     * @return Token for the next page, or null when there are no more rows
+     * @throws InterruptedException if interrupted while waiting for the query job
+     */
+    String queryUsers(UserQuery query, Consumer<User> consumer) throws InterruptedException;
+    
+    /**
+     * Read the latest row of every migrated user through the Storage Read API using parallel Arrow streams
+     * @param maxStreams Maximum number of parallel read streams
+     * @param consumer Receives each user; must be thread-safe as streams run concurrently
+     * @return Number of users read
+     * @throws IOException if reading fails
+     * @throws InterruptedException if interrupted while waiting for the streams
+     */
+    long readUsers(int maxStreams, Consumer<User> consumer) throws IOException, InterruptedException;
+    
+    /**
+     * Rebuild the demographic rollup table from the migrated users
+     * @throws InterruptedException if interrupted while waiting for the query job
+     */
+    void refreshDemographicRollups() throws InterruptedException;
+    
+    /**
+     * Get user counts by gender, age band and city from the rollup table
+     * @return Map with total, builtAt and one bucket-to-count map per dimension
+     * @throws InterruptedException if interrupted while waiting for the query job
+     */
+    Map<String, Object> getDemographicRollups() throws InterruptedException;
+    
+    /**
+     * Get the smallest and largest migrated user ID
+     * @return {min, max}, or null if nothing was migrated
+     * @throws InterruptedException if interrupted while waiting for the query job
+     */
+    long[] getIdBounds() throws InterruptedException;
+    
+    /**
+     * Compute row count and checksum of the latest migrated rows in each ID range
+     * @param ranges Disjoint ID ranges
+     * @return One checksum per range, ordered by range start
+     * @throws InterruptedException if interrupted while waiting for the query job
+     */
+    List<KeyRange> checksumRanges(List<KeyRange> ranges) throws InterruptedException;
+    
+    /**
+     * Fingerprint each latest migrated row in the given ID ranges
+     * @param ranges Disjoint, narrow ID ranges
+     * @return Map of user ID to row fingerprint
+     * @throws InterruptedException if interrupted while waiting for the query job
+     */
+    Map<Long, Long> fingerprintRows(List<KeyRange> ranges) throws InterruptedException;
 }
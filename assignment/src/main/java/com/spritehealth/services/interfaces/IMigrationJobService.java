@@ -0,0 +1,71 @@
+package com.spritehealth.services.interfaces;
+
+import com.spritehealth.models.MigrationJob;
+
+/**
+ * Interface for running Datastore-to-BigQuery migrations, and other jobs on the same table,
+ * as background jobs
+ */
+public interface IMigrationJobService {
+
+    /**
+     * Start a background migration of users changed since the last run
+     * @return The started job
+     * @throws IllegalStateException if a migration is already running for the table
+     */
+    MigrationJob startMigration();
+
+    /**
+     * Start a background verification of BigQuery against Datastore
+     * @param repair true to re-ship users that are missing or differ in BigQuery
+     * @return The started job; its result holds the reconciliation counts once finished
+     * @throws IllegalStateException if another job is already running for the table
+     */
+    MigrationJob startVerification(boolean repair);
+
+    /**
+     * Check whether an export format is supported
+     * @param format Sink name from the request
+     * @return true for bigquery, ndjson and parquet
+     */
+    boolean isExportFormat(String format);
+
+    /**
+     * Start a background export of every user to the sink for a format
+     * @param format Sink name, as accepted by isExportFormat
+     * @return The started job; its result holds the sink's counts and destination once finished
+     * @throws IllegalArgumentException if the format is unknown
+     * @throws IllegalStateException if another job is already running for the table
+     */
+    MigrationJob startExport(String format);
+
+    /**
+     * Get a job by ID
+     * @param jobId Job ID
+     * @return Job if found, null otherwise
+     */
+    MigrationJob getJob(String jobId);
+
+    /**
+     * Get the job currently active for the destination table
+     * @return Active job, or null if none
+     */
+    MigrationJob getActiveJob();
+
+    /**
+     * Request cancellation of a running job
+     * @param jobId Job ID
+     * @return Job with cancellation requested, or null if not found
+     */
+    MigrationJob cancelJob(String jobId);
+
+    /**
+     * Resume running jobs whose worker stopped, e.g. after an instance restart
+     */
+    void resumeOrphanedJobs();
+
+    /**
+     * Stop local workers; their jobs are resumed later from the last checkpoint
+     */
+    void shutdown();
+}
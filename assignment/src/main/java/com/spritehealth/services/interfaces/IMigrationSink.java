@@ -0,0 +1,26 @@
+package com.spritehealth.services.interfaces;
+
+import com.spritehealth.models.User;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Interface for destinations users can be migrated or exported to
+ */
+public interface IMigrationSink {
+
+    /**
+     * Get the name used to select this sink
+     * @return Sink name, e.g. "bigquery" or "parquet"
+     */
+    String getName();
+
+    /**
+     * Write users to the destination
+     * @param users Users to write; consumed once
+     * @return Map with success (every user read and written), aborted (the source failed part way),
+     *         migrated, total and message, plus destination details
+     */
+    Map<String, Object> write(Iterator<User> users);
+}
@@ -0,0 +1,17 @@
+package com.spritehealth.services.interfaces;
+
+import java.util.Map;
+
+/**
+ * Interface for verifying that BigQuery holds the same users as Datastore
+ */
+public interface IReconciliationService {
+
+    /**
+     * Compare Datastore with the latest migrated rows and optionally re-ship the differences
+     * @param repair true to migrate users that are missing or differ in BigQuery
+     * @return Map with the counts of missing, mismatched, extra and repaired users
+     * @throws InterruptedException if interrupted while waiting for BigQuery or the Datastore scan
+     */
+    Map<String, Object> verify(boolean repair) throws InterruptedException;
+}
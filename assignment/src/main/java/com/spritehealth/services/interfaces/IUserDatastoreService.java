@@ -1,13 +1,35 @@
 package com.spritehealth.services.interfaces;
 
 import com.spritehealth.models.User;
+import com.spritehealth.models.UserOperation;
+import com.spritehealth.models.UserOperationResult;
+import com.spritehealth.models.UserPage;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Interface for user datastore operations
  */
 public interface IUserDatastoreService {
     
+    /**
+     * Thrown when a conditional update finds the user at a different version than expected.
+     */
+    class VersionConflictException extends RuntimeException {
+        private final long currentVersion;
+        
+        public VersionConflictException(long currentVersion) {
+            super("User was modified by another request");
+            this.currentVersion = currentVersion;
+        }
+        
+        public long getCurrentVersion() {
+            return currentVersion;
+        }
+    }
+    
     /**
      * Create a new user
      * @param user User to create
@@ -29,6 +51,14 @@ public interface IUserDatastoreService {
      */
     User getUserById(Long id);
     
+    /**
+     * Get user by ID, reading only the given properties where the store allows it
+     * @param id User ID
+     * @param properties Properties to read besides the ID, or null for all
+     * @return User with at least those properties set, or null if not found
+     */
+    User getUserById(Long id, Set<String> properties);
+    
     /**
      * Get user by email
      * @param email User email
@@ -42,6 +72,50 @@ public interface IUserDatastoreService {
      */
     List<User> getAllUsers();
     
+    /**
+     * Lazily iterate all users
+     * @return Iterator that fetches users from the store page by page
+     */
+    Iterator<User> iterateAllUsers();
+    
+    /**
+     * Lazily iterate all users, reading only the given properties where the store allows it
+     * @param properties Properties to read besides the ID, or null for all
+     * @return Iterator of users with at least those properties set
+     */
+    Iterator<User> iterateAllUsers(Set<String> properties);
+    
+    /**
+     * Get users modified after the given time, oldest change first
+     * @param updatedAfter Epoch millis watermark; 0 returns every user
+     * @return List of users changed since the watermark
+     */
+    List<User> getUsersUpdatedSince(long updatedAfter);
+    
+    /**
+     * Lazily iterate users modified after the given time, oldest change first
+     * @param updatedAfter Epoch millis watermark; 0 iterates every user
+     * @return Iterator that fetches users from the store page by page
+     */
+    Iterator<User> iterateUsersUpdatedSince(long updatedAfter);
+    
+    /**
+     * Get one page of users modified after the given time, resumable by cursor
+     * @param updatedAfter Epoch millis watermark; 0 pages through every user
+     * @param startCursor Cursor returned by the previous page, or null to start
+     * @param limit Maximum number of users in the page
+     * @return Page of users and the cursor to continue from
+     */
+    UserPage getUsersUpdatedSince(long updatedAfter, String startCursor, int limit);
+    
+    /**
+     * Iterate users whose ID lies in [startId, endId)
+     * @param startId First ID of the range
+     * @param endId ID just past the range
+     * @return Iterator of users in key order
+     */
+    Iterator<User> iterateUsersInKeyRange(long startId, long endId);
+    
     /**
      * Query users by name
      * @param name Name to search for
@@ -56,6 +130,23 @@ public interface IUserDatastoreService {
      */
     User updateUser(User user);
     
+    /**
+     * Apply a merge patch to a user in one transaction
+     * @param id User ID
+     * @param changes New value per field; null clears the field
+     * @param expectedVersion Version the client last saw, or null to apply unconditionally
+     * @return Updated user, or null if not found
+     * @throws VersionConflictException if the user is no longer at expectedVersion
+     */
+    User patchUser(Long id, Map<String, String> changes, Long expectedVersion);
+    
+    /**
+     * Apply a mixed list of create, update and delete operations in chunked commits
+     * @param operations Validated operations; update and delete targets must be distinct
+     * @return One result per operation, in order
+     */
+    List<UserOperationResult> applyOperations(List<UserOperation> operations);
+    
     /**
      * Delete user by ID
      * @param id User ID as string
@@ -63,6 +154,19 @@ public interface IUserDatastoreService {
      */
     boolean deleteUser(String id);
     
+    /**
+     * Get the version stamp of one user without loading the user
+     * @param id User ID
+     * @return Version that changes whenever the user is written, or null if unknown
+     */
+    Long getUserVersion(Long id);
+    
+    /**
+     * Get the version of the user collection
+     * @return Version that changes on every create, update and delete
+     */
+    long getUsersVersion();
+    
     /**
      * Authenticate user with email and password
      * @param email User email
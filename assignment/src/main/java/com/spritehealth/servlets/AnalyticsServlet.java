@@ -0,0 +1,81 @@
+package com.spritehealth.servlets;
+
+import com.google.gson.Gson;
+import com.spritehealth.services.interfaces.IBigQueryService;
+import com.spritehealth.services.impl.BigQueryServiceImpl;
+import com.spritehealth.utils.DemographicRollup;
+import com.spritehealth.utils.GsonProvider;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Servlet for demographic analytics: user counts by gender, age band and city.
+ * Counts come from pre-aggregated rollups rather than a scan per request, either the
+ * in-memory rollup over Datastore (source=live), built and refreshed in the background by
+ * DemographicRollupListener, or the BigQuery rollup table (source=warehouse).
+ */
+public class AnalyticsServlet extends HttpServlet {
+    // Service for interacting with BigQuery
+    private final IBigQueryService bigQueryService = new BigQueryServiceImpl();
+    // Gson instance for JSON serialization
+    private final Gson gson = GsonProvider.getGson();
+
+    /**
+     * Handles GET requests for demographic counts.
+     * Query parameter source is live (default) or warehouse.
+     */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+
+        Map<String, Object> result = new HashMap<>();
+
+        String source = request.getParameter("source") != null ? request.getParameter("source") : "live";
+
+        try {
+            Map<String, Object> counts;
+            if ("live".equals(source)) {
+                counts = DemographicRollup.getInstance().snapshot();
+                if (counts.isEmpty()) {
+                    // The first background build has not finished yet
+                    result.put("success", false);
+                    result.put("message", "Live rollup is still being built");
+                    response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                    response.setHeader("Retry-After", "5");
+                    response.getWriter().write(gson.toJson(result));
+                    return;
+                }
+            } else if ("warehouse".equals(source)) {
+                counts = bigQueryService.getDemographicRollups();
+            } else {
+                result.put("success", false);
+                result.put("message", "Unknown source: " + source);
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                response.getWriter().write(gson.toJson(result));
+                return;
+            }
+
+            result.putAll(counts);
+            result.put("success", true);
+            result.put("source", source);
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            result.put("success", false);
+            result.put("message", "Error computing analytics: " + e.getMessage());
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        }
+
+        response.getWriter().write(gson.toJson(result));
+    }
+
+}
@@ -0,0 +1,230 @@
+package com.spritehealth.servlets;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import com.spritehealth.models.User;
+import com.spritehealth.models.UserQuery;
+import com.spritehealth.services.interfaces.IBigQueryService;
+import com.spritehealth.services.impl.BigQueryServiceImpl;
+import com.spritehealth.utils.GsonProvider;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Servlet for reading migrated users back from BigQuery.
+ * Supports filtering, ordering and page-token paging, and streams each row
+ * to the response as it is read instead of building the whole document first.
+ * With all=true, every user is pulled in one response through the Storage Read API
+ * instead of pages of query results.
+ */
+public class BigQueryUserServlet extends HttpServlet {
+    // Parallel Storage Read streams requested for all=true
+    private static final int READ_STREAMS = 4;
+
+    // Service for interacting with BigQuery
+    private final IBigQueryService bigQueryService = new BigQueryServiceImpl();
+    // Gson instance for JSON serialization
+    private final Gson gson = GsonProvider.getGson();
+
+    /**
+     * Handles GET requests for one page of users.
+     * Query parameters: email, gender, name, bornAfter, bornBefore, migratedAfter,
+     * orderBy, order (asc|desc), pageSize and pageToken.
+     * Responds with {"users": [...], "success": true, "nextPageToken": "..."}.
+     * all=true returns the latest row of every user instead, ignoring the other parameters,
+     * as {"users": [...], "success": true, "count": n}.
+     */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+
+        if ("true".equals(request.getParameter("all"))) {
+            writeAllUsers(response);
+            return;
+        }
+
+        Map<String, Object> result = new HashMap<>();
+
+        UserQuery query;
+        try {
+            query = parseQuery(request);
+        } catch (Exception e) {
+            result.put("success", false);
+            result.put("message", "Invalid query: " + e.getMessage());
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            response.getWriter().write(gson.toJson(result));
+            return;
+        }
+
+        JsonWriter writer = new JsonWriter(response.getWriter());
+        // The document is opened on the first row so that errors before any output can still set a status
+        boolean[] started = {false};
+
+        try {
+            String nextPageToken = bigQueryService.queryUsers(query, user -> {
+                try {
+                    if (!started[0]) {
+                        writer.beginObject().name("users").beginArray();
+                        started[0] = true;
+                    }
+                    writeUser(writer, user);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+
+            if (!started[0]) {
+                writer.beginObject().name("users").beginArray();
+            }
+            writer.endArray();
+            writer.name("success").value(true);
+            writer.name("nextPageToken").value(nextPageToken);
+            writer.endObject();
+            writer.flush();
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            if (!started[0]) {
+                result.put("success", false);
+                result.put("message", "Error querying BigQuery: " + e.getMessage());
+                response.setStatus(e instanceof IllegalArgumentException
+                        ? HttpServletResponse.SC_BAD_REQUEST
+                        : HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                response.getWriter().write(gson.toJson(result));
+            } else {
+                // Rows are already on the wire; close the document with an error marker
+                writer.endArray();
+                writer.name("success").value(false);
+                writer.name("message").value("Error querying BigQuery: " + e.getMessage());
+                writer.endObject();
+                writer.flush();
+            }
+        }
+    }
+
+    /**
+     * Streams every user read through the Storage Read API.
+     * Streams decode concurrently, so writes to the response are serialized on the writer.
+     * @param response HttpServletResponse object
+     * @throws IOException if writing fails
+     */
+    private void writeAllUsers(HttpServletResponse response) throws IOException {
+        JsonWriter writer = new JsonWriter(response.getWriter());
+        // The document is opened on the first row so that errors before any output can still set a status
+        boolean[] started = {false};
+
+        try {
+            long count = bigQueryService.readUsers(READ_STREAMS, user -> {
+                synchronized (writer) {
+                    try {
+                        if (!started[0]) {
+                            writer.beginObject().name("users").beginArray();
+                            started[0] = true;
+                        }
+                        writeUser(writer, user);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+
+            synchronized (writer) {
+                if (!started[0]) {
+                    writer.beginObject().name("users").beginArray();
+                }
+                writer.endArray();
+                writer.name("success").value(true);
+                writer.name("count").value(count);
+                writer.endObject();
+                writer.flush();
+            }
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (writer) {
+                if (!started[0]) {
+                    Map<String, Object> result = new HashMap<>();
+                    result.put("success", false);
+                    result.put("message", "Error reading BigQuery: " + e.getMessage());
+                    response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                    response.getWriter().write(gson.toJson(result));
+                } else {
+                    // Rows are already on the wire; close the document with an error marker
+                    writer.endArray();
+                    writer.name("success").value(false);
+                    writer.name("message").value("Error reading BigQuery: " + e.getMessage());
+                    writer.endObject();
+                    writer.flush();
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds a UserQuery from request parameters.
+     * @param request HttpServletRequest object
+     * @return Parsed query
+     */
+    private UserQuery parseQuery(HttpServletRequest request) {
+        UserQuery query = new UserQuery();
+        query.setEmail(request.getParameter("email"));
+        query.setGender(request.getParameter("gender"));
+        query.setNameContains(request.getParameter("name"));
+        query.setPageToken(request.getParameter("pageToken"));
+
+        if (request.getParameter("bornAfter") != null) {
+            query.setBornAfter(LocalDate.parse(request.getParameter("bornAfter")));
+        }
+        if (request.getParameter("bornBefore") != null) {
+            query.setBornBefore(LocalDate.parse(request.getParameter("bornBefore")));
+        }
+        if (request.getParameter("migratedAfter") != null) {
+            query.setMigratedAfter(Instant.parse(request.getParameter("migratedAfter")));
+        }
+        if (request.getParameter("orderBy") != null) {
+            query.setOrderBy(request.getParameter("orderBy"));
+        }
+        if (request.getParameter("order") != null) {
+            query.setDescending("desc".equalsIgnoreCase(request.getParameter("order")));
+        }
+        if (request.getParameter("pageSize") != null) {
+            query.setPageSize(Integer.parseInt(request.getParameter("pageSize")));
+        }
+        return query;
+    }
+
+    /**
+     * Writes a user without sensitive fields.
+     * @param writer JsonWriter positioned inside the users array
+     * @param user User to write
+     * @throws IOException if writing fails
+     */
+    private void writeUser(JsonWriter writer, User user) throws IOException {
+        writer.beginObject();
+        writer.name("id").value(user.getId());
+        writer.name("name").value(user.getName());
+        writer.name("email").value(user.getEmail());
+        writer.name("phone").value(user.getPhone());
+        writer.name("gender").value(user.getGender());
+        writer.name("address").value(user.getAddress());
+        writer.name("dateOfBirth").value(user.getDateOfBirth() != null
+                ? user.getDateOfBirth().toString() : null);
+        writer.endObject();
+    }
+
+}
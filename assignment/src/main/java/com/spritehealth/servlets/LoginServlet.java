@@ -1,11 +1,14 @@
 package com.spritehealth.servlets;
 
 import com.google.gson.Gson;
-import com.google.gson.JsonObject;
+import com.spritehealth.filters.AuthenticationFilter;
+import com.spritehealth.models.LoginRequest;
 import com.spritehealth.models.User;
+import com.spritehealth.models.UserView;
 import com.spritehealth.services.interfaces.IUserDatastoreService;
 import com.spritehealth.services.impl.CloudDatastoreServiceImpl;
 import com.spritehealth.utils.GsonProvider;
+import com.spritehealth.utils.PasswordHasher;
 import com.spritehealth.utils.SessionManager;
 
 import javax.servlet.ServletException;
@@ -13,7 +16,6 @@ import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
@@ -46,45 +48,38 @@ public class LoginServlet extends HttpServlet {
         Map<String, Object> result = new HashMap<>();
         
         try {
-            // Read JSON body from request
-            BufferedReader reader = request.getReader();
-            JsonObject jsonObject = gson.fromJson(reader, JsonObject.class);
+            // Stream the JSON body straight into a LoginRequest
+            LoginRequest login = gson.fromJson(request.getReader(), LoginRequest.class);
             
-            // Extract email and password from JSON
-            String email = jsonObject.get("email").getAsString();
-            String password = jsonObject.get("password").getAsString();
+            if (login == null || login.getEmail() == null || login.getPassword() == null) {
+                result.put("success", false);
+                result.put("message", "Email and password are required");
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                response.getWriter().write(gson.toJson(result));
+                return;
+            }
             
             // Authenticate user using datastore service
-            User user = datastoreService.authenticateUser(email, password);
+            User user = datastoreService.authenticateUser(login.getEmail(), login.getPassword());
             
             if (user != null) {
                 // Create a new session for the authenticated user
                 String sessionId = sessionManager.createSession(user.getId(), user.getEmail(), user.getName());
                 
                 // Set session ID in a cookie
-                Cookie sessionCookie = new Cookie("USER_SESSION_ID", sessionId);
+                Cookie sessionCookie = new Cookie(AuthenticationFilter.SESSION_COOKIE, sessionId);
                 sessionCookie.setPath("/");
-                sessionCookie.setMaxAge(30 * 60); // 30 minutes
+                sessionCookie.setMaxAge(SessionManager.getCookieMaxAgeSeconds()); // Server enforces the actual expiry
                 sessionCookie.setHttpOnly(false); // Consider setting to true for security
                 response.addCookie(sessionCookie);
                 
                 System.out.println("Login successful - Session created: " + sessionId);
                 System.out.println("Login successful - User ID: " + user.getId());
                 
-                // Prepare user data to return (excluding password)
-                Map<String, Object> userData = new HashMap<>();
-                userData.put("id", user.getId());
-                userData.put("name", user.getName());
-                userData.put("email", user.getEmail());
-                userData.put("phone", user.getPhone());
-                userData.put("gender", user.getGender());
-                userData.put("address", user.getAddress());
-                userData.put("dateOfBirth", user.getDateOfBirth() != null 
-                        ? user.getDateOfBirth().toString() : null);
-                
                 result.put("success", true);
                 result.put("message", "Login successful");
-                result.put("user", userData);
+                // User data to return (excluding password)
+                result.put("user", new UserView(user));
                 
                 response.setStatus(HttpServletResponse.SC_OK);
             } else {
@@ -97,6 +92,13 @@ public class LoginServlet extends HttpServlet {
             // Write JSON response
             response.getWriter().write(gson.toJson(result));
             
+        } catch (PasswordHasher.OverloadedException e) {
+            // Shed the login rather than queue it behind the ones already hashing
+            result.put("success", false);
+            result.put("message", "Too many logins in progress, please retry");
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            response.setHeader("Retry-After", "1");
+            response.getWriter().write(gson.toJson(result));
         } catch (Exception e) {
             // Handle exceptions and return error response
             e.printStackTrace();
@@ -109,7 +111,7 @@ public class LoginServlet extends HttpServlet {
 
     /**
      * Handles GET requests to check if the user is authenticated.
-     * Looks for session ID in cookies and validates the session.
+     * Validates the session cookie through AuthenticationFilter.getPrincipal.
      */
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response)
@@ -121,37 +123,17 @@ public class LoginServlet extends HttpServlet {
         
         Map<String, Object> result = new HashMap<>();
         
-        // Retrieve session ID from cookies
-        String sessionId = null;
-        Cookie[] cookies = request.getCookies();
-        if (cookies != null) {
-            for (Cookie cookie : cookies) {
-                if ("USER_SESSION_ID".equals(cookie.getName())) {
-                    sessionId = cookie.getValue();
-                    break;
-                }
-            }
-        }
-        
-        System.out.println("Auth check - Session ID from cookie: " + sessionId);
-        
-        if (sessionId != null) {
-            // Validate session using session manager
-            Map<String, Object> sessionData = sessionManager.getSession(sessionId);
-            if (sessionData != null) {
-                // Session is valid, user is authenticated
-                result.put("authenticated", true);
-                result.put("user", sessionData);
-                System.out.println("Auth check - User authenticated: " + sessionData.get("userEmail"));
-            } else {
-                // Session is invalid or expired
-                result.put("authenticated", false);
-                System.out.println("Auth check - Session expired or invalid");
-            }
+        // Validate the session cookie, reusing the lookup if one was already made for this request
+        Map<String, Object> sessionData = AuthenticationFilter.getPrincipal(request, sessionManager);
+        if (sessionData != null) {
+            // Session is valid, user is authenticated
+            result.put("authenticated", true);
+            result.put("user", sessionData);
+            System.out.println("Auth check - User authenticated: " + sessionData.get("userEmail"));
         } else {
-            // No session cookie found
+            // No session cookie, or the session is invalid or expired
             result.put("authenticated", false);
-            System.out.println("Auth check - No session cookie found");
+            System.out.println("Auth check - No valid session");
         }
         
         // Write JSON response
@@ -1,6 +1,7 @@
 package com.spritehealth.servlets;
 
 import com.google.gson.Gson;
+import com.spritehealth.filters.AuthenticationFilter;
 import com.spritehealth.utils.GsonProvider;
 import com.spritehealth.utils.SessionManager;
 
@@ -42,7 +43,7 @@ public class LogoutServlet extends HttpServlet {
         if (cookies != null) {
             for (Cookie cookie : cookies) {
                 // Look for the session cookie by name
-                if ("USER_SESSION_ID".equals(cookie.getName())) {
+                if (AuthenticationFilter.SESSION_COOKIE.equals(cookie.getName())) {
                     sessionId = cookie.getValue();
                     break;
                 }
@@ -55,7 +56,7 @@ public class LogoutServlet extends HttpServlet {
         }
         
         // Clear the session cookie on the client side
-        Cookie sessionCookie = new Cookie("USER_SESSION_ID", "");
+        Cookie sessionCookie = new Cookie(AuthenticationFilter.SESSION_COOKIE, "");
         sessionCookie.setPath("/");
         sessionCookie.setMaxAge(0); // Invalidate the cookie immediately
         response.addCookie(sessionCookie);
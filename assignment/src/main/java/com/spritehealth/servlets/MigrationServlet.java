@@ -1,16 +1,19 @@
 package com.spritehealth.servlets;
 
 import com.google.gson.Gson;
+import com.spritehealth.models.MigrationJob;
 import com.spritehealth.models.User;
+import com.spritehealth.services.interfaces.IMigrationJobService;
 import com.spritehealth.services.interfaces.IUserDatastoreService;
 import com.spritehealth.services.interfaces.IBigQueryService;
 import com.spritehealth.services.impl.BigQueryServiceImpl;
 import com.spritehealth.services.impl.CloudDatastoreServiceImpl;
+import com.spritehealth.services.impl.MigrationJobServiceImpl;
+import com.spritehealth.utils.AsyncRequestExecutor;
 import com.spritehealth.utils.GsonProvider;
-import com.spritehealth.utils.SessionManager;
+import com.spritehealth.utils.MigrationStateManager;
 
 import javax.servlet.ServletException;
-import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -18,24 +21,63 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 
 /**
  * Servlet for handling migration of users from Datastore to BigQuery.
- * Provides endpoints for previewing and executing the migration.
+ * Provides endpoints for previewing the migration, starting it as a background job,
+ * polling its progress and cancelling it:
+ * GET /api/migrate, POST /api/migrate, GET /api/migrate/jobs/{id}, POST /api/migrate/jobs/{id}/cancel.
+ * POST /api/migrate/verify starts a job that checks BigQuery against Datastore and, with repair=true,
+ * re-ships differences; its counts are in the job's result once it finishes.
+ * POST /api/migrate/export?format=bigquery|ndjson|parquet starts a job writing a full snapshot to the chosen sink.
+ * Migrations are incremental: only users changed since the last run are shipped.
  */
 public class MigrationServlet extends HttpServlet {
     // Service for interacting with Datastore
     private final IUserDatastoreService datastoreService = new CloudDatastoreServiceImpl();
     // Service for interacting with BigQuery
     private final IBigQueryService bigQueryService = new BigQueryServiceImpl();
-    // Session manager for authentication
-    private final SessionManager sessionManager = new SessionManager();
+    // Persists the updatedAt watermark and migration jobs
+    private final MigrationStateManager migrationStateManager = new MigrationStateManager();
+    // Runs migrations in the background
+    private final IMigrationJobService migrationJobService =
+            new MigrationJobServiceImpl(datastoreService, bigQueryService, migrationStateManager);
     // Gson instance for JSON serialization
     private final Gson gson = GsonProvider.getGson();
 
     /**
-     * Handles GET requests to preview migration data.
-     * Returns all users from Datastore and BigQuery table status.
+     * Resumes jobs left running by an instance that stopped.
+     */
+    @Override
+    public void init() throws ServletException {
+        super.init();
+        migrationJobService.resumeOrphanedJobs();
+    }
+
+    /**
+     * Stops local workers; their jobs resume from the last checkpoint on another instance.
+     */
+    @Override
+    public void destroy() {
+        migrationJobService.shutdown();
+        super.destroy();
+    }
+
+    /**
+     * Runs the request on the I/O pool, so the container thread is not held while Datastore
+     * and BigQuery are called.
+     */
+    @Override
+    protected void service(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        AsyncRequestExecutor.getInstance().dispatch(request, response, super::service);
+    }
+
+    /**
+     * Handles GET requests.
+     * /api/migrate returns users changed since the last migration, BigQuery table status
+     * and the active job; /api/migrate/jobs/{id} returns a job's progress.
      */
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response)
@@ -47,21 +89,32 @@ public class MigrationServlet extends HttpServlet {
         Map<String, Object> result = new HashMap<>();
         
         try {
-            // Check if user is authenticated
-            if (!isAuthenticated(request)) {
-                result.put("success", false);
-                result.put("message", "Unauthorized");
-                response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+            String pathInfo = request.getPathInfo();
+            if (pathInfo != null && pathInfo.startsWith("/jobs/")) {
+                // Get job status
+                MigrationJob job = migrationJobService.getJob(pathInfo.substring("/jobs/".length()));
+                if (job != null) {
+                    result.put("success", true);
+                    result.put("job", job);
+                } else {
+                    result.put("success", false);
+                    result.put("message", "Migration job not found");
+                    response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                }
                 response.getWriter().write(gson.toJson(result));
                 return;
             }
             
-            // Get all users from Datastore for migration preview
-            List<User> users = datastoreService.getAllUsers();
+            // Get users changed since the last migration for preview
+            long watermark = migrationStateManager.getWatermark(bigQueryService.getTableName());
+            List<User> users = datastoreService.getUsersUpdatedSince(watermark);
+            MigrationJob activeJob = migrationJobService.getActiveJob();
             
             result.put("success", true);
             result.put("users", users);
             result.put("count", users.size());
+            result.put("lastMigratedAt", watermark);
+            result.put("activeJob", activeJob != null && activeJob.isRunning() ? activeJob : null);
             // Check if the BigQuery table exists
             result.put("bigQueryTableExists", bigQueryService.tableExists());
             
@@ -77,8 +130,11 @@ public class MigrationServlet extends HttpServlet {
     }
 
     /**
-     * Handles POST requests to execute the migration.
-     * Migrates all users from Datastore to BigQuery.
+     * Handles POST requests.
+     * /api/migrate starts a background migration job and returns it immediately;
+     * /api/migrate/jobs/{id}/cancel requests cancellation of a job;
+     * /api/migrate/verify starts a job reconciling BigQuery with Datastore (repair=true to fix differences);
+     * /api/migrate/export starts a job writing every user to the sink named by the format parameter.
      */
     @Override
     protected void doPost(HttpServletRequest request, HttpServletResponse response)
@@ -90,32 +146,55 @@ public class MigrationServlet extends HttpServlet {
         Map<String, Object> result = new HashMap<>();
         
         try {
-            // Check if user is authenticated
-            if (!isAuthenticated(request)) {
-                result.put("success", false);
-                result.put("message", "Unauthorized");
-                response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+            String pathInfo = request.getPathInfo();
+            if (pathInfo != null && pathInfo.startsWith("/jobs/") && pathInfo.endsWith("/cancel")) {
+                // Cancel a job
+                String jobId = pathInfo.substring("/jobs/".length(), pathInfo.length() - "/cancel".length());
+                MigrationJob job = migrationJobService.cancelJob(jobId);
+                if (job != null) {
+                    result.put("success", true);
+                    result.put("message", "Cancellation requested");
+                    result.put("job", job);
+                } else {
+                    result.put("success", false);
+                    result.put("message", "Migration job not found");
+                    response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                }
                 response.getWriter().write(gson.toJson(result));
                 return;
             }
             
-            // Get all users from Datastore
-            List<User> users = datastoreService.getAllUsers();
+            if ("/verify".equals(pathInfo)) {
+                // Holds the table like a migration, since a running migration would show up as differences
+                boolean repair = "true".equals(request.getParameter("repair"));
+                writeStartedJob(response, result, () -> migrationJobService.startVerification(repair),
+                        "Verification started");
+                return;
+            }
+            
+            if ("/export".equals(pathInfo)) {
+                String format = request.getParameter("format");
+                if (!migrationJobService.isExportFormat(format)) {
+                    result.put("success", false);
+                    result.put("message", "Unknown export format; use bigquery, ndjson or parquet");
+                    response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                    response.getWriter().write(gson.toJson(result));
+                    return;
+                }
+                writeStartedJob(response, result, () -> migrationJobService.startExport(format), "Export started");
+                return;
+            }
             
-            // If no users found, return error
-            if (users.isEmpty()) {
+            if (pathInfo != null && !pathInfo.equals("/")) {
                 result.put("success", false);
-                result.put("message", "No users found in Datastore to migrate");
-                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                result.put("message", "Unknown migration endpoint");
+                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
                 response.getWriter().write(gson.toJson(result));
                 return;
             }
             
-            // Migrate users to BigQuery and get migration result
-            Map<String, Object> migrationResult = bigQueryService.migrateUsers(users);
-            
-            response.setStatus(HttpServletResponse.SC_OK);
-            response.getWriter().write(gson.toJson(migrationResult));
+            // Start the migration in the background
+            writeStartedJob(response, result, migrationJobService::startMigration, "Migration started");
             
         } catch (Exception e) {
             e.printStackTrace();
@@ -127,21 +206,30 @@ public class MigrationServlet extends HttpServlet {
     }
 
     /**
-     * Checks if the user is authenticated by verifying the session cookie.
-     * @param request HttpServletRequest object
-     * @return true if authenticated, false otherwise
+     * Starts a background job and answers 202 with it, or 409 with the job already holding the table.
+     * @param response HttpServletResponse object
+     * @param result Response body to fill
+     * @param start Starts the job
+     * @param message Message for a started job
+     * @throws IOException if writing fails
      */
-    private boolean isAuthenticated(HttpServletRequest request) {
-        Cookie[] cookies = request.getCookies();
-        if (cookies != null) {
-            for (Cookie cookie : cookies) {
-                if ("USER_SESSION_ID".equals(cookie.getName())) {
-                    // Retrieve session data using the session manager
-                    Map<String, Object> sessionData = sessionManager.getSession(cookie.getValue());
-                    return sessionData != null;
-                }
-            }
+    private void writeStartedJob(HttpServletResponse response, Map<String, Object> result,
+                                 Supplier<MigrationJob> start, String message) throws IOException {
+        try {
+            MigrationJob job = start.get();
+            result.put("success", true);
+            result.put("message", message);
+            result.put("jobId", job.getId());
+            result.put("job", job);
+            response.setStatus(HttpServletResponse.SC_ACCEPTED);
+        } catch (IllegalStateException e) {
+            // Only one job may run per table
+            result.put("success", false);
+            result.put("message", e.getMessage());
+            result.put("job", migrationJobService.getActiveJob());
+            response.setStatus(HttpServletResponse.SC_CONFLICT);
         }
-        return false;
+        response.getWriter().write(gson.toJson(result));
     }
+
 }
@@ -1,10 +1,14 @@
 package com.spritehealth.servlets;
 
 import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
 import com.spritehealth.models.User;
 import com.spritehealth.services.interfaces.IUserDatastoreService;
 import com.spritehealth.services.impl.CloudDatastoreServiceImpl;
+import com.spritehealth.utils.AsyncRequestExecutor;
 import com.spritehealth.utils.GsonProvider;
+import com.spritehealth.utils.PasswordHasher;
+import com.spritehealth.utils.UserJsonWriter;
 import org.apache.poi.ss.usermodel.*;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
@@ -31,11 +35,23 @@ import java.util.Map;
     maxRequestSize = 20 * 1024 * 1024 // 20MB
 )
 public class UploadServlet extends HttpServlet {
+    // Most users one upload may create; every row's password is hashed before the save
+    private static final int MAX_UPLOAD_ROWS = Integer.parseInt(System.getenv().getOrDefault("MAX_UPLOAD_ROWS", "1000"));
     // Service for user data storage (uses CloudDatastoreServiceImpl)
     private final IUserDatastoreService datastoreService = new CloudDatastoreServiceImpl();
     // Gson instance for JSON serialization
     private final Gson gson = GsonProvider.getGson();
 
+    /**
+     * Runs the request on the I/O pool, so the container thread is not held while the upload
+     * is parsed and saved.
+     */
+    @Override
+    protected void service(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        AsyncRequestExecutor.getInstance().dispatch(request, response, super::service);
+    }
+
     /**
      * Handles POST requests for file upload.
      */
@@ -73,18 +89,37 @@ public class UploadServlet extends HttpServlet {
         return;
         }
 
+        if (users.size() > MAX_UPLOAD_ROWS) {
+        // Too many rows to hash in one request
+        result.put("success", false);
+        result.put("message", "An upload may contain at most " + MAX_UPLOAD_ROWS + " users");
+        response.setStatus(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+        response.getWriter().write(gson.toJson(result));
+        return;
+        }
+
         // Save users to the datastore
         List<User> savedUsers = datastoreService.createUsers(users);
 
-        // Prepare success response
-        result.put("success", true);
-        result.put("message", "Successfully uploaded " + savedUsers.size() + " users");
-        result.put("count", savedUsers.size());
-        result.put("users", savedUsers);
-
+        // Stream the success response, one saved user at a time
         response.setStatus(HttpServletResponse.SC_OK);
+        JsonWriter out = new JsonWriter(response.getWriter());
+        out.beginObject();
+        out.name("success").value(true);
+        out.name("message").value("Successfully uploaded " + savedUsers.size() + " users");
+        out.name("count").value(savedUsers.size());
+        out.name("users");
+        UserJsonWriter.writeUsers(out, savedUsers.iterator());
+        out.endObject();
+        out.flush();
+
+    } catch (PasswordHasher.OverloadedException e) {
+        // Shed the upload rather than queue it behind the hashing already in progress
+        result.put("success", false);
+        result.put("message", "Too many uploads in progress, please retry");
+        response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        response.setHeader("Retry-After", "5");
         response.getWriter().write(gson.toJson(result));
-
     } catch (Exception e) {
         // Handle errors and send error response
         e.printStackTrace();
@@ -97,6 +132,7 @@ public class UploadServlet extends HttpServlet {
 
     /**
      * Parses the Excel file input stream and extracts user data.
+     * Stops after one row more than MAX_UPLOAD_ROWS, which is enough to reject the upload.
      * @param inputStream Input stream of the uploaded Excel file
      * @return List of User objects parsed from the file
      * @throws IOException if file reading fails
@@ -111,6 +147,9 @@ public class UploadServlet extends HttpServlet {
         boolean isFirstRow = true;
 
         for (Row row : sheet) {
+        if (users.size() > MAX_UPLOAD_ROWS) {
+            break;
+        }
         if (isFirstRow) {
             isFirstRow = false;
             continue;
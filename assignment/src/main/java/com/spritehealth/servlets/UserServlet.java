@@ -1,34 +1,52 @@
 package com.spritehealth.servlets;
 
 import com.google.gson.Gson;
-import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.MalformedJsonException;
+import com.google.gson.stream.JsonWriter;
 import com.spritehealth.models.User;
+import com.spritehealth.models.UserOperation;
+import com.spritehealth.models.UserOperationResult;
+import com.spritehealth.models.UserPatch;
+import com.spritehealth.models.UserView;
 import com.spritehealth.services.interfaces.IUserDatastoreService;
 import com.spritehealth.services.impl.CloudDatastoreServiceImpl;
+import com.spritehealth.utils.AsyncRequestExecutor;
 import com.spritehealth.utils.GsonProvider;
-import com.spritehealth.utils.SessionManager;
+import com.spritehealth.utils.PasswordHasher;
+import com.spritehealth.utils.UserJsonWriter;
 
 import javax.servlet.ServletException;
-import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.Reader;
 import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 /**
- * Servlet for handling user-related operations such as retrieving, creating, and deleting users.
+ * Servlet for handling user-related operations such as retrieving, creating, updating, and deleting users.
  */
 public class UserServlet extends HttpServlet {
+    // Path of the batch endpoint, mapped to this servlet on its own
+    private static final String BATCH_PATH = "/api/users:batch";
+    // Most operations accepted in one batch request
+    private static final int MAX_BATCH_OPERATIONS = 5000;
+
     // Service for interacting with the user datastore
     private final IUserDatastoreService datastoreService = new CloudDatastoreServiceImpl();
-    // Session manager for handling user sessions
-    private final SessionManager sessionManager = new SessionManager();
     // Gson instance for JSON serialization/deserialization
     private final Gson gson = GsonProvider.getGson();
 
@@ -36,6 +54,10 @@ public class UserServlet extends HttpServlet {
      * Handles GET requests for retrieving users.
      * If a user ID is provided in the path, retrieves a specific user.
      * Otherwise, retrieves all users.
+     * Responses carry an ETag built from the user's or the collection's version; a matching
+     * If-None-Match is answered with 304 before any user is read.
+     * The optional fields parameter (e.g. fields=name,email) limits the response, and the
+     * properties read from Datastore, to the ID and the listed fields.
      */
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response)
@@ -47,11 +69,13 @@ public class UserServlet extends HttpServlet {
         Map<String, Object> result = new HashMap<>();
         
         try {
-            // Check if user is authenticated
-            if (!isAuthenticated(request)) {
+            Set<String> fields;
+            try {
+                fields = parseFields(request.getParameter("fields"));
+            } catch (IllegalArgumentException e) {
                 result.put("success", false);
-                result.put("message", "Unauthorized");
-                response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+                result.put("message", e.getMessage());
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
                 response.getWriter().write(gson.toJson(result));
                 return;
             }
@@ -63,12 +87,22 @@ public class UserServlet extends HttpServlet {
                 String userId = pathInfo.substring(1);
                 try {
                     Long id = Long.parseLong(userId);
-                    User user = datastoreService.getUserById(id);
+                    Long version = datastoreService.getUserVersion(id);
+                    if (version != null && isNotModified(request, response, userETag(id, version, fields))) {
+                        return;
+                    }
+                    
+                    User user = datastoreService.getUserById(id, fields);
                     
                     if (user != null) {
+                        if (version == null && user.getUpdatedAt() > 0) {
+                            response.setHeader("ETag", userETag(id, user.getUpdatedAt(), fields));
+                        }
                         result.put("success", true);
-                        result.put("user", sanitizeUser(user));
+                        result.put("user", sanitizeUser(user, fields));
                     } else {
+                        // Deleted since its version was read
+                        response.setHeader("ETag", null);
                         result.put("success", false);
                         result.put("message", "User not found");
                         response.setStatus(HttpServletResponse.SC_NOT_FOUND);
@@ -79,17 +113,15 @@ public class UserServlet extends HttpServlet {
                     response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
                 }
             } else {
-                // Get all users
-                List<User> users = datastoreService.getAllUsers();
-                List<Map<String, Object>> sanitizedUsers = new ArrayList<>();
-                
-                for (User user : users) {
-                    sanitizedUsers.add(sanitizeUser(user));
+                String etag = "W/\"users-" + Long.toHexString(datastoreService.getUsersVersion())
+                        + fieldsTag(fields) + "\"";
+                if (isNotModified(request, response, etag)) {
+                    return;
                 }
                 
-                result.put("success", true);
-                result.put("users", sanitizedUsers);
-                result.put("count", users.size());
+                // Get all users, streamed as they are read from Datastore
+                writeUserList(response, datastoreService.iterateAllUsers(fields), fields);
+                return;
             }
             
             response.getWriter().write(gson.toJson(result));
@@ -116,45 +148,31 @@ public class UserServlet extends HttpServlet {
         
         Map<String, Object> result = new HashMap<>();
         
+        if (BATCH_PATH.equals(request.getServletPath())) {
+            doBatch(request, response);
+            return;
+        }
+        
         try {
-            // Check if user is authenticated
-            if (!isAuthenticated(request)) {
+            // Stream the JSON body straight into a User
+            User user = gson.fromJson(request.getReader(), User.class);
+            
+            if (user == null || user.getName() == null || user.getEmail() == null || user.getPassword() == null) {
                 result.put("success", false);
-                result.put("message", "Unauthorized");
-                response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+                result.put("message", "Name, email and password are required");
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
                 response.getWriter().write(gson.toJson(result));
                 return;
             }
-            
-            // Read JSON body from request
-            BufferedReader reader = request.getReader();
-            JsonObject jsonObject = gson.fromJson(reader, JsonObject.class);
-            
-            // Create a new User object from the JSON data
-            User user = new User();
-            user.setName(jsonObject.get("name").getAsString());
-            user.setEmail(jsonObject.get("email").getAsString());
-            user.setPassword(jsonObject.get("password").getAsString());
-            
-            if (jsonObject.has("phone")) {
-                user.setPhone(jsonObject.get("phone").getAsString());
-            }
-            if (jsonObject.has("gender")) {
-                user.setGender(jsonObject.get("gender").getAsString());
-            }
-            if (jsonObject.has("address")) {
-                user.setAddress(jsonObject.get("address").getAsString());
-            }
-            if (jsonObject.has("dateOfBirth")) {
-                user.setDateOfBirth(LocalDate.parse(jsonObject.get("dateOfBirth").getAsString()));
-            }
+            // The ID is always assigned by Datastore
+            user.setId(null);
             
             // Save the new user to the datastore
             User savedUser = datastoreService.createUser(user);
             
             result.put("success", true);
             result.put("message", "User created successfully");
-            result.put("user", sanitizeUser(savedUser));
+            result.put("user", sanitizeUser(savedUser, null));
             
             response.setStatus(HttpServletResponse.SC_CREATED);
             response.getWriter().write(gson.toJson(result));
@@ -169,11 +187,161 @@ public class UserServlet extends HttpServlet {
     }
 
     /**
-     * Handles DELETE requests for deleting a user by ID.
-     * Expects the user ID in the path.
+     * Handles POST /api/users:batch, which applies many create, update and delete operations in one request.
+     * Expects {"operations": [{"op": "create", "user": {...}}, {"op": "update", "id": 1, "user": {...}},
+     * {"op": "delete", "id": 2}]}; updates are merge patches. Invalid operations get a 400 result and
+     * are skipped, the rest are applied in chunked commits. The response lists one result per
+     * operation, in request order.
+     */
+    private void doBatch(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Map<String, Object> result = new HashMap<>();
+        
+        try {
+            List<UserOperation> operations;
+            try {
+                operations = readOperations(request.getReader());
+                if (operations == null) {
+                    result.put("message", "Body needs an operations array");
+                }
+            } catch (JsonParseException | IllegalStateException | MalformedJsonException | EOFException e) {
+                operations = null;
+                result.put("message", "Invalid batch body: " + e.getMessage());
+            }
+            if (operations != null && (operations.isEmpty() || operations.size() > MAX_BATCH_OPERATIONS)) {
+                result.put("message", "A batch needs between 1 and " + MAX_BATCH_OPERATIONS + " operations");
+                operations = null;
+            }
+            if (operations == null) {
+                result.put("success", false);
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                response.getWriter().write(gson.toJson(result));
+                return;
+            }
+            
+            // Reject invalid operations individually and apply the rest
+            UserOperationResult[] results = new UserOperationResult[operations.size()];
+            List<UserOperation> valid = new ArrayList<>();
+            List<Integer> validIndexes = new ArrayList<>();
+            Set<Long> targets = new HashSet<>();
+            for (int i = 0; i < operations.size(); i++) {
+                String invalid = validateOperation(operations.get(i), targets);
+                if (invalid != null) {
+                    results[i] = new UserOperationResult(HttpServletResponse.SC_BAD_REQUEST, invalid, null);
+                } else {
+                    valid.add(operations.get(i));
+                    validIndexes.add(i);
+                }
+            }
+            if (!valid.isEmpty()) {
+                List<UserOperationResult> applied = datastoreService.applyOperations(valid);
+                for (int i = 0; i < applied.size(); i++) {
+                    results[validIndexes.get(i)] = applied.get(i);
+                }
+            }
+            
+            int failed = 0;
+            for (UserOperationResult operationResult : results) {
+                if (!operationResult.isSuccess()) {
+                    failed++;
+                }
+            }
+            
+            JsonWriter out = new JsonWriter(response.getWriter());
+            out.beginObject();
+            out.name("success").value(failed == 0);
+            out.name("succeeded").value(results.length - failed);
+            out.name("failed").value(failed);
+            out.name("results").beginArray();
+            for (UserOperationResult operationResult : results) {
+                out.beginObject();
+                out.name("status").value(operationResult.getStatus());
+                out.name("success").value(operationResult.isSuccess());
+                out.name("message").value(operationResult.getMessage());
+                if (operationResult.getUser() != null) {
+                    out.name("user");
+                    UserJsonWriter.writeUser(out, operationResult.getUser());
+                }
+                out.endObject();
+            }
+            out.endArray();
+            out.endObject();
+            out.flush();
+            
+        } catch (PasswordHasher.OverloadedException e) {
+            // Shed the batch rather than queue it behind the hashing already in progress
+            result.put("success", false);
+            result.put("message", "Too many password hashes in progress, please retry");
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            response.setHeader("Retry-After", "5");
+            response.getWriter().write(gson.toJson(result));
+        } catch (Exception e) {
+            e.printStackTrace();
+            result.put("success", false);
+            result.put("message", "Error applying batch: " + e.getMessage());
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            response.getWriter().write(gson.toJson(result));
+        }
+    }
+
+    /**
+     * Reads the operations array of a batch body with a streaming reader.
+     * @param reader Request body
+     * @return Operations in request order, or null if the body has no operations array
+     */
+    private List<UserOperation> readOperations(Reader reader) throws IOException {
+        TypeAdapter<UserOperation> adapter = gson.getAdapter(UserOperation.class);
+        List<UserOperation> operations = null;
+        JsonReader in = gson.newJsonReader(reader);
+        in.beginObject();
+        while (in.hasNext()) {
+            if (!"operations".equals(in.nextName())) {
+                in.skipValue();
+                continue;
+            }
+            operations = new ArrayList<>();
+            in.beginArray();
+            while (in.hasNext() && operations.size() <= MAX_BATCH_OPERATIONS) {
+                operations.add(adapter.read(in));
+            }
+            if (operations.size() > MAX_BATCH_OPERATIONS) {
+                // Too many; no need to read the rest
+                return operations;
+            }
+            in.endArray();
+        }
+        in.endObject();
+        return operations;
+    }
+
+    /**
+     * Runs the request on the I/O pool, so the container thread is not held while Datastore
+     * is called.
      */
     @Override
-    protected void doDelete(HttpServletRequest request, HttpServletResponse response)
+    protected void service(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        AsyncRequestExecutor.getInstance().dispatch(request, response, this::handle);
+    }
+
+    /**
+     * Dispatches PATCH, which HttpServlet does not handle itself.
+     */
+    private void handle(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        if ("PATCH".equals(request.getMethod())) {
+            doPatch(request, response);
+        } else {
+            super.service(request, response);
+        }
+    }
+
+    /**
+     * Handles PATCH requests that partially update a user.
+     * Expects the user ID in the path and a JSON merge patch body: fields present are changed,
+     * null clears a field. With an If-Match header carrying an ETag from a GET, the update only
+     * applies if the user is still at that version; otherwise the response is 412.
+     */
+    protected void doPatch(HttpServletRequest request, HttpServletResponse response)
             throws ServletException, IOException {
         
         response.setContentType("application/json");
@@ -182,15 +350,97 @@ public class UserServlet extends HttpServlet {
         Map<String, Object> result = new HashMap<>();
         
         try {
-            // Check if user is authenticated
-            if (!isAuthenticated(request)) {
+            String pathInfo = request.getPathInfo();
+            Long id;
+            try {
+                id = pathInfo != null && pathInfo.length() > 1 ? Long.parseLong(pathInfo.substring(1)) : null;
+            } catch (NumberFormatException e) {
+                id = null;
+            }
+            if (id == null) {
                 result.put("success", false);
-                result.put("message", "Unauthorized");
-                response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+                result.put("message", "Invalid user ID");
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
                 response.getWriter().write(gson.toJson(result));
                 return;
             }
             
+            Long expectedVersion = null;
+            String ifMatch = request.getHeader("If-Match");
+            if (ifMatch != null && !ifMatch.trim().equals("*")) {
+                expectedVersion = parseETagVersion(ifMatch, id);
+                if (expectedVersion == null) {
+                    result.put("success", false);
+                    result.put("message", "If-Match does not match this user");
+                    response.setStatus(HttpServletResponse.SC_PRECONDITION_FAILED);
+                    response.getWriter().write(gson.toJson(result));
+                    return;
+                }
+            }
+            
+            String invalid = null;
+            UserPatch patch;
+            try {
+                patch = gson.fromJson(request.getReader(), UserPatch.class);
+            } catch (JsonParseException e) {
+                patch = null;
+                invalid = e.getMessage();
+            }
+            if (invalid == null) {
+                invalid = patch != null ? validateChanges(patch.getChanges()) : "No fields to update";
+            }
+            if (invalid != null) {
+                result.put("success", false);
+                result.put("message", invalid);
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                response.getWriter().write(gson.toJson(result));
+                return;
+            }
+            
+            try {
+                User user = datastoreService.patchUser(id, patch.getChanges(), expectedVersion);
+                if (user != null) {
+                    response.setHeader("ETag", userETag(id, user.getUpdatedAt(), null));
+                    result.put("success", true);
+                    result.put("message", "User updated successfully");
+                    result.put("user", sanitizeUser(user, null));
+                } else {
+                    result.put("success", false);
+                    result.put("message", "User not found");
+                    response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                }
+            } catch (IUserDatastoreService.VersionConflictException e) {
+                response.setHeader("ETag", userETag(id, e.getCurrentVersion(), null));
+                result.put("success", false);
+                result.put("message", e.getMessage());
+                response.setStatus(HttpServletResponse.SC_PRECONDITION_FAILED);
+            }
+            
+            response.getWriter().write(gson.toJson(result));
+            
+        } catch (Exception e) {
+            e.printStackTrace();
+            result.put("success", false);
+            result.put("message", "Error updating user: " + e.getMessage());
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            response.getWriter().write(gson.toJson(result));
+        }
+    }
+
+    /**
+     * Handles DELETE requests for deleting a user by ID.
+     * Expects the user ID in the path.
+     */
+    @Override
+    protected void doDelete(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        
+        Map<String, Object> result = new HashMap<>();
+        
+        try {
             String pathInfo = request.getPathInfo();
             
             if (pathInfo == null || pathInfo.equals("/")) {
@@ -234,39 +484,193 @@ public class UserServlet extends HttpServlet {
     }
 
     /**
-     * Checks if the request is authenticated by verifying the session cookie.
+     * Sets the ETag of the response and checks it against the request's If-None-Match.
+     * Tags are weak, so they stay valid when the response is compressed.
      * @param request The HTTP request
-     * @return true if authenticated, false otherwise
+     * @param response The HTTP response; set to 304 if the client's copy is current
+     * @param etag ETag of the current representation
+     * @return true if a 304 was sent and nothing more should be written
      */
-    private boolean isAuthenticated(HttpServletRequest request) {
-        Cookie[] cookies = request.getCookies();
-        if (cookies != null) {
-            for (Cookie cookie : cookies) {
-                if ("USER_SESSION_ID".equals(cookie.getName())) {
-                    Map<String, Object> sessionData = sessionManager.getSession(cookie.getValue());
-                    return sessionData != null;
-                }
+    private boolean isNotModified(HttpServletRequest request, HttpServletResponse response, String etag) {
+        response.setHeader("ETag", etag);
+        // Let clients keep a copy but revalidate it on every use
+        response.setHeader("Cache-Control", "private, no-cache");
+
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        String current = etag.startsWith("W/") ? etag.substring(2) : etag;
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(current)) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return true;
             }
         }
         return false;
     }
 
+    // ETag of a single user at the given version, in the given field selection
+    private static String userETag(Long id, long version, Set<String> fields) {
+        return "W/\"" + id + "-" + Long.toHexString(version) + fieldsTag(fields) + "\"";
+    }
+
+    // Distinguishes the ETags of different field selections of the same data
+    private static String fieldsTag(Set<String> fields) {
+        return fields == null ? "" : "-" + String.join(".", new TreeSet<>(fields));
+    }
+
+    /**
+     * Extracts the version from an ETag produced by userETag, in any field selection.
+     * @param etag ETag from an If-Match header
+     * @param id ID of the user being updated
+     * @return The version, or null if the tag is malformed or belongs to another user
+     */
+    private static Long parseETagVersion(String etag, Long id) {
+        String tag = etag.trim();
+        if (tag.startsWith("W/")) {
+            tag = tag.substring(2);
+        }
+        if (tag.length() < 2 || !tag.startsWith("\"") || !tag.endsWith("\"")) {
+            return null;
+        }
+        String[] parts = tag.substring(1, tag.length() - 1).split("-");
+        if (parts.length < 2 || !parts[0].equals(String.valueOf(id))) {
+            return null;
+        }
+        try {
+            return Long.parseUnsignedLong(parts[1], 16);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Checks the changes of a merge patch before they are applied.
+     * @param changes New value per field
+     * @return A message describing the problem, or null if the changes are valid
+     */
+    private static String validateChanges(Map<String, String> changes) {
+        if (changes.isEmpty()) {
+            return "No fields to update";
+        }
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            if (change.getValue() == null && UserPatch.REQUIRED_FIELDS.contains(change.getKey())) {
+                return change.getKey() + " cannot be removed";
+            }
+        }
+        return validateDateOfBirth(changes.get("dateOfBirth"));
+    }
+
+    /**
+     * Checks one operation of a batch request.
+     * @param operation Parsed operation
+     * @param targets IDs updated or deleted by earlier operations of the batch; the target is added
+     * @return A message describing the problem, or null if the operation is valid
+     */
+    private static String validateOperation(UserOperation operation, Set<Long> targets) {
+        if (operation == null || operation.getType() == null) {
+            return "Unknown op; use create, update or delete";
+        }
+        if (!operation.getUnknownFields().isEmpty()) {
+            return "Field cannot be patched: " + String.join(", ", operation.getUnknownFields());
+        }
+        Map<String, String> fields = operation.getFields();
+        if (operation.getType() == UserOperation.Type.CREATE) {
+            for (String required : UserPatch.REQUIRED_FIELDS) {
+                if (fields.get(required) == null) {
+                    return "Name, email and password are required";
+                }
+            }
+            return validateDateOfBirth(fields.get("dateOfBirth"));
+        }
+
+        if (operation.getId() == null) {
+            return "id is required";
+        }
+        if (!targets.add(operation.getId())) {
+            return "Duplicate operation on user " + operation.getId();
+        }
+        return operation.getType() == UserOperation.Type.UPDATE ? validateChanges(fields) : null;
+    }
+
+    // Checks that a dateOfBirth value, if given, is an ISO date
+    private static String validateDateOfBirth(String dateOfBirth) {
+        if (dateOfBirth != null && !dateOfBirth.isEmpty()) {
+            try {
+                LocalDate.parse(dateOfBirth);
+            } catch (DateTimeParseException e) {
+                return "Invalid dateOfBirth: " + dateOfBirth;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parses the fields parameter into the set of public fields to return besides the ID.
+     * @param fields Comma-separated field names, or null
+     * @return Selected fields, or null to return all
+     * @throws IllegalArgumentException if a field is not a public user field
+     */
+    private static Set<String> parseFields(String fields) {
+        if (fields == null || fields.trim().isEmpty()) {
+            return null;
+        }
+        Set<String> selected = new HashSet<>();
+        for (String field : fields.split(",")) {
+            String name = field.trim();
+            if (name.isEmpty() || name.equals("id")) {
+                continue;
+            }
+            if (!UserJsonWriter.PUBLIC_FIELDS.contains(name)) {
+                throw new IllegalArgumentException("Unknown field: " + name);
+            }
+            selected.add(name);
+        }
+        return selected;
+    }
+
+    /**
+     * Streams a user list response without building it in memory.
+     * The status and count follow the array because neither is known until it ends; an error
+     * after the response is committed cannot change the status code, so it is reported in the body.
+     * @param response The HTTP response
+     * @param users Users to write
+     * @param fields Fields to write besides the ID, or null for all
+     */
+    private void writeUserList(HttpServletResponse response, Iterator<User> users, Set<String> fields)
+            throws IOException {
+        JsonWriter out = new JsonWriter(response.getWriter());
+        out.beginObject();
+        out.name("users");
+        try {
+            int count = UserJsonWriter.writeUsers(out, users, fields);
+            out.name("success").value(true);
+            out.name("count").value(count);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            if (!response.isCommitted()) {
+                response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                response.setHeader("ETag", null);
+            }
+            out.name("success").value(false);
+            out.name("message").value("Error retrieving users: " + e.getMessage());
+        }
+        out.endObject();
+        out.flush();
+    }
+
     /**
      * Removes sensitive information from the user object before sending it in the response.
      * @param user The user object
-     * @return A map containing sanitized user data
+     * @param fields Fields to include besides the ID, or null for all
+     * @return A view of the user without the password
      */
-    private Map<String, Object> sanitizeUser(User user) {
-        Map<String, Object> sanitized = new HashMap<>();
-        sanitized.put("id", user.getId());
-        sanitized.put("name", user.getName());
-        sanitized.put("email", user.getEmail());
-        sanitized.put("phone", user.getPhone());
-        sanitized.put("gender", user.getGender());
-        sanitized.put("address", user.getAddress());
-        sanitized.put("dateOfBirth", user.getDateOfBirth() != null 
-                ? user.getDateOfBirth().toString() : null);
-        // Note: password is not included
-        return sanitized;
+    private UserView sanitizeUser(User user, Set<String> fields) {
+        return new UserView(user, fields);
     }
 }
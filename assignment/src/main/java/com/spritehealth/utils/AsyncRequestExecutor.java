@@ -0,0 +1,154 @@
+package com.spritehealth.utils;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs servlet requests on a dedicated I/O pool instead of the container's request threads.
+ * A dispatched request is put into asynchronous mode and handed to the pool, so the container
+ * thread returns at once while the Datastore or BigQuery calls run; requests waiting in the
+ * pool's queue hold no container thread at all. When the queue is full, requests are answered
+ * with 503 at once.
+ */
+public class AsyncRequestExecutor {
+    /**
+     * Request attribute under which a filter that post-processes the response (such as
+     * CompressionFilter) can leave a Closeable that completes the body. It is closed on the
+     * worker thread before the request is completed, since the filter's own code has already
+     * returned by then.
+     */
+    public static final String RESPONSE_FINISHER_ATTRIBUTE = "com.spritehealth.responseFinisher";
+
+    // Worker threads, and requests allowed to wait for them
+    private static final int IO_THREADS = Integer.parseInt(System.getenv().getOrDefault("ASYNC_IO_THREADS", "200"));
+    private static final int IO_QUEUE = Integer.parseInt(System.getenv().getOrDefault("ASYNC_IO_QUEUE", "5000"));
+    // Idle workers above zero are stopped after this long
+    private static final long IDLE_MILLIS = 60_000;
+
+    private static volatile AsyncRequestExecutor instance;
+
+    private final ThreadPoolExecutor workers;
+
+    /**
+     * Handles one request; matches HttpServlet.service so servlets can pass super::service.
+     */
+    @FunctionalInterface
+    public interface RequestHandler {
+        void handle(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException;
+    }
+
+    private AsyncRequestExecutor() {
+        this.workers = new ThreadPoolExecutor(IO_THREADS, IO_THREADS, IDLE_MILLIS, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(IO_QUEUE), runnable -> {
+                    Thread thread = new Thread(runnable, "request-io");
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        this.workers.allowCoreThreadTimeOut(true);
+        System.out.println("Async request executor started (" + IO_THREADS + " threads, queue " + IO_QUEUE + ")");
+    }
+
+    /**
+     * Returns the instance-wide executor, starting it on first use.
+     * @return Shared executor
+     */
+    public static AsyncRequestExecutor getInstance() {
+        if (instance == null) {
+            synchronized (AsyncRequestExecutor.class) {
+                if (instance == null) {
+                    instance = new AsyncRequestExecutor();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Runs a request on the I/O pool and completes it when the handler returns.
+     * Requests that cannot go asynchronous, such as ones passing through a filter without
+     * async support, are handled on the calling thread.
+     * @param request Request, as received by the servlet
+     * @param response Response, as received by the servlet, so filter wrappers stay in place
+     * @param handler Code that writes the response
+     * @throws ServletException if a synchronously handled request fails
+     * @throws IOException if a synchronously handled request fails
+     */
+    public void dispatch(HttpServletRequest request, HttpServletResponse response, RequestHandler handler)
+            throws ServletException, IOException {
+        if (!request.isAsyncSupported()) {
+            handler.handle(request, response);
+            return;
+        }
+
+        AsyncContext asyncContext = request.startAsync(request, response);
+        // The handler always completes the request itself, and App Engine enforces its own
+        // request deadline; a container timeout would only race the worker for the response
+        asyncContext.setTimeout(0);
+        try {
+            workers.execute(() -> run(asyncContext, request, response, handler));
+        } catch (RejectedExecutionException e) {
+            System.err.println("Request rejected, I/O pool saturated: " + request.getMethod() + " " + request.getRequestURI());
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            response.setHeader("Retry-After", "1");
+            response.setContentType("application/json");
+            response.setCharacterEncoding("UTF-8");
+            Map<String, Object> result = new HashMap<>();
+            result.put("success", false);
+            result.put("message", "Server is busy, please retry");
+            response.getWriter().write(GsonProvider.getGson().toJson(result));
+            complete(asyncContext, request);
+        }
+    }
+
+    /**
+     * Stops the pool; requests still queued are dropped.
+     */
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    private static void run(AsyncContext asyncContext, HttpServletRequest request, HttpServletResponse response,
+                            RequestHandler handler) {
+        try {
+            handler.handle(request, response);
+        } catch (Exception e) {
+            e.printStackTrace();
+            try {
+                if (!response.isCommitted()) {
+                    response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                }
+            } catch (IOException | IllegalStateException sendFailed) {
+                System.err.println("Error reporting request failure: " + sendFailed.getMessage());
+            }
+        } finally {
+            complete(asyncContext, request);
+        }
+    }
+
+    private static void complete(AsyncContext asyncContext, HttpServletRequest request) {
+        Object finisher = request.getAttribute(RESPONSE_FINISHER_ATTRIBUTE);
+        if (finisher instanceof Closeable) {
+            try {
+                ((Closeable) finisher).close();
+            } catch (IOException e) {
+                System.err.println("Error finishing response: " + e.getMessage());
+            }
+        }
+        try {
+            asyncContext.complete();
+        } catch (IllegalStateException e) {
+            // Already completed by the container, e.g. after the client went away
+            System.err.println("Request already completed: " + e.getMessage());
+        }
+    }
+}
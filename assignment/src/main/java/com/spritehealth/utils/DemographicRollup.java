@@ -0,0 +1,229 @@
+package com.spritehealth.utils;
+
+import com.spritehealth.models.User;
+
+import java.time.LocalDate;
+import java.time.Period;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory counts of users by gender, age band and city, kept current by applying
+ * every create, update and delete as it happens. The counts are rebuilt from a full scan
+ * in the background at startup and on a schedule, which also corrects drift from writes
+ * made on other instances and from birthdays moving users between age bands.
+ * The bucketing rules are shared with the BigQuery rollup so both sources agree.
+ */
+public class DemographicRollup {
+    public static final String GENDER = "gender";
+    public static final String AGE_BAND = "ageBand";
+    public static final String CITY = "city";
+    public static final String UNKNOWN = "unknown";
+
+    // Lower bound of each age band in years; the last band is open-ended
+    private static final int[] AGE_BAND_LOWER_BOUNDS = {0, 18, 25, 35, 45, 55, 65};
+
+    // Singleton shared by the datastore service and the analytics endpoint
+    private static final DemographicRollup INSTANCE = new DemographicRollup();
+
+    // Current counts; replaced wholesale on rebuild
+    private volatile Counts counts;
+
+    private DemographicRollup() {
+    }
+
+    /**
+     * Returns the process-wide rollup.
+     * @return shared rollup instance
+     */
+    public static DemographicRollup getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Checks whether the counts need a rebuild.
+     * @param maxAgeMillis Maximum age of the last full scan
+     * @return true if never built or older than maxAgeMillis
+     */
+    public boolean isStale(long maxAgeMillis) {
+        Counts current = counts;
+        return current == null || System.currentTimeMillis() - current.builtAt > maxAgeMillis;
+    }
+
+    /**
+     * Rebuilds the counts from a full scan of users and swaps them in.
+     * @param users Iterator over every user
+     */
+    public synchronized void rebuild(Iterator<User> users) {
+        Counts fresh = new Counts();
+        LocalDate today = LocalDate.now();
+        while (users.hasNext()) {
+            fresh.apply(users.next(), today, 1);
+        }
+        counts = fresh;
+    }
+
+    /**
+     * Counts a newly written user. Ignored until the first rebuild.
+     * @param user Created or updated user
+     */
+    public void add(User user) {
+        Counts current = counts;
+        if (current != null && user != null) {
+            current.apply(user, LocalDate.now(), 1);
+        }
+    }
+
+    /**
+     * Uncounts a deleted user or the previous version of an updated one.
+     * @param user Deleted or replaced user
+     */
+    public void remove(User user) {
+        Counts current = counts;
+        if (current != null && user != null) {
+            current.apply(user, LocalDate.now(), -1);
+        }
+    }
+
+    /**
+     * Returns a point-in-time copy of the counts.
+     * @return Map with total, builtAt and one bucket-to-count map per dimension
+     */
+    public Map<String, Object> snapshot() {
+        Counts current = counts;
+        Map<String, Object> result = new TreeMap<>();
+        if (current == null) {
+            return result;
+        }
+        result.put("total", current.total.sum());
+        result.put("builtAt", current.builtAt);
+        current.dimensions.forEach((dimension, buckets) -> {
+            Map<String, Long> values = new TreeMap<>();
+            buckets.forEach((bucket, count) -> {
+                long sum = count.sum();
+                if (sum > 0) {
+                    values.put(bucket, sum);
+                }
+            });
+            result.put(dimension, values);
+        });
+        return result;
+    }
+
+    /**
+     * Buckets a gender value.
+     * @param gender Stored gender
+     * @return Trimmed gender, or unknown if blank
+     */
+    public static String genderBucket(String gender) {
+        return gender == null || gender.trim().isEmpty() ? UNKNOWN : gender.trim();
+    }
+
+    /**
+     * Buckets a date of birth into an age band such as "25-34" or "65+".
+     * @param dateOfBirth Date of birth, may be null
+     * @param today Reference date
+     * @return Age band label, or unknown
+     */
+    public static String ageBand(LocalDate dateOfBirth, LocalDate today) {
+        if (dateOfBirth == null || dateOfBirth.isAfter(today)) {
+            return UNKNOWN;
+        }
+        int age = Period.between(dateOfBirth, today).getYears();
+        for (int i = AGE_BAND_LOWER_BOUNDS.length - 1; i >= 0; i--) {
+            if (age >= AGE_BAND_LOWER_BOUNDS[i]) {
+                return ageBandLabel(i);
+            }
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * Extracts the city from an address of the form "street, city, state zip".
+     * @param address Stored address
+     * @return City, or unknown if the address has fewer than three parts
+     */
+    public static String cityBucket(String address) {
+        if (address == null) {
+            return UNKNOWN;
+        }
+        String[] parts = address.split(",");
+        if (parts.length < 3 || parts[parts.length - 2].trim().isEmpty()) {
+            return UNKNOWN;
+        }
+        return parts[parts.length - 2].trim();
+    }
+
+    /**
+     * Builds a BigQuery SQL expression that buckets a DATE column exactly like ageBand.
+     * @param column DATE column name
+     * @return SQL CASE expression yielding the age band label
+     */
+    public static String ageBandSql(String column) {
+        String age = "(DATE_DIFF(CURRENT_DATE(), " + column + ", YEAR)"
+                + " - IF(FORMAT_DATE('%m%d', " + column + ") > FORMAT_DATE('%m%d', CURRENT_DATE()), 1, 0))";
+        StringBuilder sql = new StringBuilder("CASE WHEN " + column + " IS NULL OR " + column
+                + " > CURRENT_DATE() THEN '" + UNKNOWN + "'");
+        for (int i = AGE_BAND_LOWER_BOUNDS.length - 1; i >= 0; i--) {
+            sql.append(" WHEN ").append(age).append(" >= ").append(AGE_BAND_LOWER_BOUNDS[i])
+                    .append(" THEN '").append(ageBandLabel(i)).append("'");
+        }
+        return sql.append(" ELSE '").append(UNKNOWN).append("' END").toString();
+    }
+
+    /**
+     * Builds a BigQuery SQL expression that buckets an address column exactly like cityBucket.
+     * @param column STRING column name
+     * @return SQL expression yielding the city
+     */
+    public static String citySql(String column) {
+        String parts = "SPLIT(IFNULL(" + column + ", ''), ',')";
+        return "IFNULL(NULLIF(IF(ARRAY_LENGTH(" + parts + ") >= 3, TRIM(" + parts
+                + "[OFFSET(ARRAY_LENGTH(" + parts + ") - 2)]), ''), ''), '" + UNKNOWN + "')";
+    }
+
+    /**
+     * Builds a BigQuery SQL expression that buckets a gender column exactly like genderBucket.
+     * @param column STRING column name
+     * @return SQL expression yielding the gender bucket
+     */
+    public static String genderSql(String column) {
+        return "IFNULL(NULLIF(TRIM(" + column + "), ''), '" + UNKNOWN + "')";
+    }
+
+    private static String ageBandLabel(int index) {
+        int lower = AGE_BAND_LOWER_BOUNDS[index];
+        return index == AGE_BAND_LOWER_BOUNDS.length - 1
+                ? lower + "+"
+                : lower + "-" + (AGE_BAND_LOWER_BOUNDS[index + 1] - 1);
+    }
+
+    /**
+     * One generation of counters.
+     */
+    private static class Counts {
+        private final long builtAt = System.currentTimeMillis();
+        private final LongAdder total = new LongAdder();
+        private final Map<String, Map<String, LongAdder>> dimensions = new ConcurrentHashMap<>();
+
+        Counts() {
+            dimensions.put(GENDER, new ConcurrentHashMap<>());
+            dimensions.put(AGE_BAND, new ConcurrentHashMap<>());
+            dimensions.put(CITY, new ConcurrentHashMap<>());
+        }
+
+        void apply(User user, LocalDate today, int delta) {
+            total.add(delta);
+            increment(GENDER, genderBucket(user.getGender()), delta);
+            increment(AGE_BAND, ageBand(user.getDateOfBirth(), today), delta);
+            increment(CITY, cityBucket(user.getAddress()), delta);
+        }
+
+        private void increment(String dimension, String bucket, int delta) {
+            dimensions.get(dimension).computeIfAbsent(bucket, b -> new LongAdder()).add(delta);
+        }
+    }
+}
@@ -2,19 +2,32 @@ package com.spritehealth.utils;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
 import com.google.gson.TypeAdapter;
 import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
+import com.spritehealth.models.LoginRequest;
+import com.spritehealth.models.User;
+import com.spritehealth.models.UserOperation;
+import com.spritehealth.models.UserPatch;
+import com.spritehealth.models.UserView;
 
 import java.io.IOException;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Provides a properly configured Gson instance that can handle LocalDate and other Java 8+ types.
+ * Output is compact, and users and request bodies go through hand-written streaming adapters
+ * rather than reflection.
  */
 public class GsonProvider {
-    // Singleton instance of Gson configured for LocalDate and pretty printing
+    // Singleton instance of Gson configured for LocalDate and the model adapters
     private static final Gson GSON_INSTANCE;
 
     // Static block to initialize the Gson instance with custom settings
@@ -22,8 +35,12 @@ public class GsonProvider {
         GSON_INSTANCE = new GsonBuilder()
                 // Register custom adapter for LocalDate serialization/deserialization
                 .registerTypeAdapter(LocalDate.class, new LocalDateAdapter())
-                // Enable pretty printing for JSON output
-                .setPrettyPrinting()
+                // Register streaming adapters for users and request bodies
+                .registerTypeAdapter(User.class, new UserAdapter())
+                .registerTypeAdapter(UserView.class, new UserViewAdapter())
+                .registerTypeAdapter(LoginRequest.class, new LoginRequestAdapter())
+                .registerTypeAdapter(UserPatch.class, new UserPatchAdapter())
+                .registerTypeAdapter(UserOperation.class, new UserOperationAdapter())
                 .create();
     }
 
@@ -70,4 +87,306 @@ public class GsonProvider {
             return LocalDate.parse(dateString, FORMATTER);
         }
     }
+
+    /**
+     * TypeAdapter for User. Reads every field, including the password of a new user,
+     * but never writes the password.
+     */
+    private static class UserAdapter extends TypeAdapter<User> {
+
+        @Override
+        public void write(JsonWriter out, User user) throws IOException {
+            if (user == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("id").value(user.getId());
+            out.name("name").value(user.getName());
+            out.name("email").value(user.getEmail());
+            out.name("phone").value(user.getPhone());
+            out.name("gender").value(user.getGender());
+            out.name("address").value(user.getAddress());
+            out.name("dateOfBirth").value(user.getDateOfBirth() != null ? user.getDateOfBirth().toString() : null);
+            out.name("updatedAt").value(user.getUpdatedAt());
+            out.endObject();
+        }
+
+        @Override
+        public User read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            return readUser(in, new HashSet<>());
+        }
+    }
+
+    /**
+     * TypeAdapter for the public view of a user, shared with the streaming list responses.
+     * A view read back selects the public fields present in the object, or all of them when
+     * every one is present; a password in the input is dropped, as a view never carries one.
+     */
+    private static class UserViewAdapter extends TypeAdapter<UserView> {
+
+        @Override
+        public void write(JsonWriter out, UserView view) throws IOException {
+            if (view == null) {
+                out.nullValue();
+            } else {
+                UserJsonWriter.writeUser(out, view.getUser(), view.getFields());
+            }
+        }
+
+        @Override
+        public UserView read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            Set<String> names = new HashSet<>();
+            User user = readUser(in, names);
+            user.setPassword(null);
+            names.retainAll(UserJsonWriter.PUBLIC_FIELDS);
+            return new UserView(user, names.size() == UserJsonWriter.PUBLIC_FIELDS.size() ? null : names);
+        }
+    }
+
+    /**
+     * TypeAdapter for login request bodies; the password is never written back out.
+     */
+    private static class LoginRequestAdapter extends TypeAdapter<LoginRequest> {
+
+        @Override
+        public void write(JsonWriter out, LoginRequest login) throws IOException {
+            if (login == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("email").value(login.getEmail());
+            out.endObject();
+        }
+
+        @Override
+        public LoginRequest read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            LoginRequest login = new LoginRequest();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "email":
+                        login.setEmail(nextStringOrNull(in));
+                        break;
+                    case "password":
+                        login.setPassword(nextStringOrNull(in));
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return login;
+        }
+    }
+
+    /**
+     * TypeAdapter for JSON merge patches on a user; rejects fields that cannot be patched.
+     * Cleared fields are written as null, and a new password is never written back out.
+     */
+    private static class UserPatchAdapter extends TypeAdapter<UserPatch> {
+
+        @Override
+        public void write(JsonWriter out, UserPatch patch) throws IOException {
+            if (patch == null) {
+                out.nullValue();
+            } else {
+                writePatchFields(out, patch.getChanges());
+            }
+        }
+
+        @Override
+        public UserPatch read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            UserPatch patch = new UserPatch();
+            readPatchFields(in, patch.getChanges(), null);
+            return patch;
+        }
+    }
+
+    /**
+     * TypeAdapter for batch operations: {"op": "create"|"update"|"delete", "id": ..., "user": {...}}.
+     * The user object is read and written with the merge patch rules, except that fields which
+     * cannot be set are recorded on the operation rather than failing the whole batch; an unknown
+     * op leaves the type null.
+     */
+    private static class UserOperationAdapter extends TypeAdapter<UserOperation> {
+
+        @Override
+        public void write(JsonWriter out, UserOperation operation) throws IOException {
+            if (operation == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            if (operation.getType() != null) {
+                out.name("op").value(operation.getType().name().toLowerCase(Locale.ROOT));
+            }
+            if (operation.getId() != null) {
+                out.name("id").value(operation.getId());
+            }
+            if (operation.getType() != UserOperation.Type.DELETE) {
+                out.name("user");
+                writePatchFields(out, operation.getFields());
+            }
+            out.endObject();
+        }
+
+        @Override
+        public UserOperation read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            UserOperation operation = new UserOperation();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "op":
+                        String op = nextStringOrNull(in);
+                        for (UserOperation.Type type : UserOperation.Type.values()) {
+                            if (type.name().equals(op != null ? op.toUpperCase(Locale.ROOT) : null)) {
+                                operation.setType(type);
+                            }
+                        }
+                        break;
+                    case "id":
+                        operation.setId(nextLongOrNull(in));
+                        break;
+                    case "user":
+                        if (in.peek() == JsonToken.NULL) {
+                            in.nextNull();
+                        } else {
+                            readPatchFields(in, operation.getFields(), operation.getUnknownFields());
+                        }
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return operation;
+        }
+    }
+
+    // Reads a user object, recording the names of the fields present
+    private static User readUser(JsonReader in, Set<String> names) throws IOException {
+        User user = new User();
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            names.add(name);
+            switch (name) {
+                case "id":
+                    user.setId(nextLongOrNull(in));
+                    break;
+                case "name":
+                    user.setName(nextStringOrNull(in));
+                    break;
+                case "email":
+                    user.setEmail(nextStringOrNull(in));
+                    break;
+                case "password":
+                    user.setPassword(nextStringOrNull(in));
+                    break;
+                case "phone":
+                    user.setPhone(nextStringOrNull(in));
+                    break;
+                case "gender":
+                    user.setGender(nextStringOrNull(in));
+                    break;
+                case "address":
+                    user.setAddress(nextStringOrNull(in));
+                    break;
+                case "dateOfBirth":
+                    String dateOfBirth = nextStringOrNull(in);
+                    user.setDateOfBirth(dateOfBirth != null && !dateOfBirth.isEmpty()
+                            ? LocalDate.parse(dateOfBirth, DateTimeFormatter.ISO_LOCAL_DATE) : null);
+                    break;
+                case "updatedAt":
+                    Long updatedAt = nextLongOrNull(in);
+                    user.setUpdatedAt(updatedAt != null ? updatedAt : 0);
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return user;
+    }
+
+    // Reads an object of user fields into a map. Fields that cannot be set are added to rejected,
+    // or fail the read when rejected is null
+    private static void readPatchFields(JsonReader in, Map<String, String> fields, Set<String> rejected)
+            throws IOException {
+        in.beginObject();
+        while (in.hasNext()) {
+            String field = in.nextName();
+            if (!UserPatch.PATCHABLE_FIELDS.contains(field)) {
+                if (rejected == null) {
+                    throw new JsonParseException("Field cannot be patched: " + field);
+                }
+                rejected.add(field);
+                in.skipValue();
+                continue;
+            }
+            fields.put(field, nextStringOrNull(in));
+        }
+        in.endObject();
+    }
+
+    // Writes user fields as an object, keeping nulls since they clear a field; never writes the password
+    private static void writePatchFields(JsonWriter out, Map<String, String> fields) throws IOException {
+        boolean serializeNulls = out.getSerializeNulls();
+        out.beginObject();
+        out.setSerializeNulls(true);
+        try {
+            for (Map.Entry<String, String> field : fields.entrySet()) {
+                if (!"password".equals(field.getKey())) {
+                    out.name(field.getKey()).value(field.getValue());
+                }
+            }
+        } finally {
+            out.setSerializeNulls(serializeNulls);
+        }
+        out.endObject();
+    }
+
+    // Reads a string, also accepting numbers and booleans as their text, or null
+    private static String nextStringOrNull(JsonReader in) throws IOException {
+        JsonToken token = in.peek();
+        if (token == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        if (token == JsonToken.BOOLEAN) {
+            return String.valueOf(in.nextBoolean());
+        }
+        return in.nextString();
+    }
+
+    // Reads a number, also accepting one given as a string, or null
+    private static Long nextLongOrNull(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextLong();
+    }
 }
@@ -0,0 +1,317 @@
+package com.spritehealth.utils;
+
+import com.google.cloud.datastore.*;
+import com.spritehealth.models.MigrationJob;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * MigrationStateManager persists Datastore-to-BigQuery migration state:
+ * the per-table watermark so each run only ships users changed since the previous one,
+ * and background migration jobs with their checkpoints.
+ * Each table allows at most one active job, enforced transactionally on its state entity.
+ * A job's heartbeat doubles as its ownership token: claimJob replaces it, so a worker whose
+ * job was taken over finds a different heartbeat on its next write and must stop.
+ */
+public class MigrationStateManager {
+    // Datastore kind for storing per-table migration state
+    private static final String STATE_KIND = "MigrationState";
+    // Datastore kind for storing migration jobs
+    private static final String JOB_KIND = "MigrationJob";
+    private final Datastore datastore;
+
+    /**
+     * Thrown when a worker writes a job that another instance has since claimed or finished.
+     */
+    public static class JobTakenOverException extends RuntimeException {
+        public JobTakenOverException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Initializes the Datastore client using the project ID from environment variable,
+     * or a default project ID if not set.
+     */
+    public MigrationStateManager() {
+        String projectId = System.getenv("GOOGLE_CLOUD_PROJECT");
+        if (projectId == null || projectId.isEmpty()) {
+            projectId = "api-7355075667102536099-806743";
+        }
+        this.datastore = DatastoreOptions.newBuilder().setProjectId(projectId).build().getService();
+    }
+
+    /**
+     * Returns the updatedAt watermark of the last successful migration.
+     *
+     * @param tableName The BigQuery table the watermark belongs to.
+     * @return Epoch millis watermark, or 0 if the table was never migrated.
+     */
+    public long getWatermark(String tableName) {
+        try {
+            Entity state = datastore.get(stateKey(tableName));
+
+            if (state == null || !state.contains("watermark")) {
+                return 0L;
+            }
+            return state.getLong("watermark");
+        } catch (Exception e) {
+            System.err.println("Error reading migration watermark: " + e.getMessage());
+            return 0L;
+        }
+    }
+
+    /**
+     * Creates a new running migration job for the table and marks it as the table's active job.
+     * The job starts from the table's current watermark.
+     *
+     * @param tableName The BigQuery table to migrate into.
+     * @return The created job.
+     * @throws IllegalStateException if another job is already active for the table.
+     */
+    public MigrationJob createJob(String tableName) {
+        return createJob(tableName, MigrationJob.TYPE_MIGRATE, null);
+    }
+
+    /**
+     * Creates a new running job of any type for the table and marks it as the table's active job,
+     * so it cannot overlap a migration or another job on the same table.
+     *
+     * @param tableName The BigQuery table the job works on.
+     * @param type      One of the MigrationJob types.
+     * @param options   Type-specific option, or null.
+     * @return The created job.
+     * @throws IllegalStateException if another job is already active for the table.
+     */
+    public MigrationJob createJob(String tableName, String type, String options) {
+        Transaction tx = datastore.newTransaction();
+        try {
+            Entity state = tx.get(stateKey(tableName));
+            String activeJobId = state != null && state.contains("activeJobId")
+                    ? state.getString("activeJobId") : "";
+
+            if (!activeJobId.isEmpty()) {
+                Entity active = tx.get(jobKey(activeJobId));
+                if (active != null && MigrationJob.STATUS_RUNNING.equals(active.getString("status"))) {
+                    throw new IllegalStateException("Job " + activeJobId + " is already running for " + tableName);
+                }
+            }
+
+            long now = System.currentTimeMillis();
+            MigrationJob job = new MigrationJob();
+            job.setId(UUID.randomUUID().toString());
+            job.setTableName(tableName);
+            job.setType(type);
+            job.setOptions(options);
+            job.setStatus(MigrationJob.STATUS_RUNNING);
+            job.setStartWatermark(state != null && state.contains("watermark") ? state.getLong("watermark") : 0L);
+            job.setCreatedAt(now);
+            job.setHeartbeatAt(now);
+
+            tx.put(job.toEntityBuilder(jobKey(job.getId())).build());
+            tx.put(stateBuilder(tableName, state).set("activeJobId", job.getId()).build());
+            tx.commit();
+
+            System.out.println("Migration job created: " + job.getId());
+            return job;
+        } finally {
+            if (tx.isActive()) {
+                tx.rollback();
+            }
+        }
+    }
+
+    /**
+     * Retrieves a job by ID.
+     *
+     * @param jobId The job ID.
+     * @return The job, or null if not found.
+     */
+    public MigrationJob getJob(String jobId) {
+        if (jobId == null || jobId.isEmpty()) {
+            return null;
+        }
+        Entity entity = datastore.get(jobKey(jobId));
+        return entity != null ? MigrationJob.fromEntity(entity) : null;
+    }
+
+    /**
+     * Retrieves the job currently marked active for a table.
+     *
+     * @param tableName The BigQuery table.
+     * @return The active job, or null if none.
+     */
+    public MigrationJob getActiveJob(String tableName) {
+        Entity state = datastore.get(stateKey(tableName));
+        if (state == null || !state.contains("activeJobId")) {
+            return null;
+        }
+        return getJob(state.getString("activeJobId"));
+    }
+
+    /**
+     * Lists every job still marked running, including ones orphaned by an instance restart.
+     *
+     * @return Running jobs.
+     */
+    public List<MigrationJob> getRunningJobs() {
+        Query<Entity> query = Query.newEntityQueryBuilder()
+                .setKind(JOB_KIND)
+                .setFilter(StructuredQuery.PropertyFilter.eq("status", MigrationJob.STATUS_RUNNING))
+                .build();
+
+        List<MigrationJob> jobs = new ArrayList<>();
+        datastore.run(query).forEachRemaining(entity -> jobs.add(MigrationJob.fromEntity(entity)));
+        return jobs;
+    }
+
+    /**
+     * Persists the job's progress and refreshes its heartbeat, provided the caller still owns it.
+     * A cancel requested concurrently is preserved and reflected on the returned job.
+     *
+     * @param job The job with updated cursor and counters.
+     * @return The job as stored, with cancelRequested from Datastore.
+     * @throws JobTakenOverException if the job was claimed or finished by someone else.
+     */
+    public MigrationJob checkpoint(MigrationJob job) {
+        Transaction tx = datastore.newTransaction();
+        long previousHeartbeat = job.getHeartbeatAt();
+        try {
+            Entity stored = tx.get(jobKey(job.getId()));
+            checkOwner(stored, job);
+            if (stored.getBoolean("cancelRequested")) {
+                job.setCancelRequested(true);
+            }
+            job.setHeartbeatAt(System.currentTimeMillis());
+            tx.put(job.toEntityBuilder(jobKey(job.getId())).build());
+            tx.commit();
+            return job;
+        } catch (RuntimeException e) {
+            // Keep the heartbeat that is still stored, so the next checkpoint matches it
+            job.setHeartbeatAt(previousHeartbeat);
+            throw e;
+        } finally {
+            if (tx.isActive()) {
+                tx.rollback();
+            }
+        }
+    }
+
+    /**
+     * Takes over a running job whose heartbeat has not moved since it was read.
+     * Only one instance can win the claim for a given heartbeat.
+     *
+     * @param job The orphaned job as previously read.
+     * @return true if this caller now owns the job.
+     */
+    public boolean claimJob(MigrationJob job) {
+        Transaction tx = datastore.newTransaction();
+        try {
+            Entity stored = tx.get(jobKey(job.getId()));
+            if (stored == null
+                    || !MigrationJob.STATUS_RUNNING.equals(stored.getString("status"))
+                    || stored.getLong("heartbeatAt") != job.getHeartbeatAt()) {
+                return false;
+            }
+            long now = System.currentTimeMillis();
+            tx.put(Entity.newBuilder(stored).set("heartbeatAt", now).build());
+            tx.commit();
+            job.setHeartbeatAt(now);
+            return true;
+        } finally {
+            if (tx.isActive()) {
+                tx.rollback();
+            }
+        }
+    }
+
+    /**
+     * Flags a job for cancellation; the worker stops after its current chunk.
+     *
+     * @param jobId The job ID.
+     * @return The job with the flag set, or null if not found.
+     */
+    public MigrationJob requestCancel(String jobId) {
+        Transaction tx = datastore.newTransaction();
+        try {
+            Entity stored = tx.get(jobKey(jobId));
+            if (stored == null) {
+                return null;
+            }
+            Entity updated = Entity.newBuilder(stored).set("cancelRequested", true).build();
+            tx.put(updated);
+            tx.commit();
+            return MigrationJob.fromEntity(updated);
+        } finally {
+            if (tx.isActive()) {
+                tx.rollback();
+            }
+        }
+    }
+
+    /**
+     * Stores a job's final state, releases the table for the next job and,
+     * when given, advances the table's watermark in the same transaction.
+     *
+     * @param job          The finished job.
+     * @param newWatermark Watermark to store, or null to leave it unchanged.
+     * @throws JobTakenOverException if the job was claimed or finished by someone else.
+     */
+    public void finishJob(MigrationJob job, Long newWatermark) {
+        Transaction tx = datastore.newTransaction();
+        try {
+            checkOwner(tx.get(jobKey(job.getId())), job);
+            Entity state = tx.get(stateKey(job.getTableName()));
+            Entity.Builder stateBuilder = stateBuilder(job.getTableName(), state);
+            if (state != null && state.contains("activeJobId")
+                    && job.getId().equals(state.getString("activeJobId"))) {
+                stateBuilder.set("activeJobId", "");
+            }
+            if (newWatermark != null) {
+                stateBuilder.set("watermark", newWatermark);
+            }
+
+            job.setFinishedAt(System.currentTimeMillis());
+            tx.put(job.toEntityBuilder(jobKey(job.getId())).build());
+            tx.put(stateBuilder.build());
+            tx.commit();
+
+            System.out.println("Migration job " + job.getId() + " finished: " + job.getStatus());
+        } finally {
+            if (tx.isActive()) {
+                tx.rollback();
+            }
+        }
+    }
+
+    /**
+     * Checks that a stored job is still running under the heartbeat the caller last wrote.
+     */
+    private static void checkOwner(Entity stored, MigrationJob job) {
+        if (stored == null
+                || !MigrationJob.STATUS_RUNNING.equals(stored.getString("status"))
+                || stored.getLong("heartbeatAt") != job.getHeartbeatAt()) {
+            throw new JobTakenOverException("Job " + job.getId() + " is no longer owned by this worker");
+        }
+    }
+
+    /**
+     * Builds the state entity for a table, keeping existing properties.
+     */
+    private Entity.Builder stateBuilder(String tableName, Entity existing) {
+        Entity.Builder builder = existing != null
+                ? Entity.newBuilder(existing)
+                : Entity.newBuilder(stateKey(tableName)).set("watermark", 0L).set("activeJobId", "");
+        return builder.set("lastRunAt", System.currentTimeMillis());
+    }
+
+    private Key stateKey(String tableName) {
+        return datastore.newKeyFactory().setKind(STATE_KIND).newKey(tableName);
+    }
+
+    private Key jobKey(String jobId) {
+        return datastore.newKeyFactory().setKind(JOB_KIND).newKey(jobId);
+    }
+}
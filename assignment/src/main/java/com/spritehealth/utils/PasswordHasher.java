@@ -0,0 +1,274 @@
+package com.spritehealth.utils;
+
+import com.spritehealth.models.User;
+import org.mindrot.jbcrypt.BCrypt;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Hashes and verifies user passwords with bcrypt.
+ * The bcrypt cost is calibrated once at startup so that one hash takes about
+ * PASSWORD_HASH_TARGET_MILLIS on this machine. Verifications run on a small fixed pool with a
+ * bounded queue; when a login storm fills the queue, further logins are rejected at once
+ * instead of holding request threads while they wait for CPU.
+ * Bulk hashing for uploads and batches, and rehashing after login, run on a second, smaller
+ * pool that is shed the same way, so a large import cannot take every core from logins.
+ */
+public class PasswordHasher {
+    // Target time for one hash
+    private static final long TARGET_MILLIS =
+            Long.parseLong(System.getenv().getOrDefault("PASSWORD_HASH_TARGET_MILLIS", "250"));
+    // Cost bounds; 10 is the bcrypt default and the lowest accepted
+    private static final int MIN_COST = 10;
+    private static final int MAX_COST = 16;
+    // Verification threads, and verifications allowed to wait for them
+    private static final int VERIFY_THREADS = Integer.parseInt(System.getenv().getOrDefault(
+            "PASSWORD_VERIFY_THREADS", String.valueOf(Runtime.getRuntime().availableProcessors())));
+    private static final int VERIFY_QUEUE = Integer.parseInt(System.getenv().getOrDefault("PASSWORD_VERIFY_QUEUE", "64"));
+    // Longest a caller waits for a verification, queueing included
+    private static final long VERIFY_TIMEOUT_MILLIS = 5000;
+    // Bulk hashing threads, and hashing tasks allowed to wait for them; a bulk call queues one
+    // task per thread, whatever its size
+    private static final int HASH_THREADS = Integer.parseInt(System.getenv().getOrDefault(
+            "PASSWORD_HASH_THREADS", String.valueOf(Math.max(1, Runtime.getRuntime().availableProcessors() / 2))));
+    private static final int HASH_QUEUE = Integer.parseInt(System.getenv().getOrDefault("PASSWORD_HASH_QUEUE", "32"));
+
+    private static volatile PasswordHasher instance;
+
+    private final int cost;
+    private final ThreadPoolExecutor verifiers;
+    private final ThreadPoolExecutor hashers;
+    // Checked when no user matches, so unknown emails take as long as wrong passwords
+    private final String dummyHash;
+
+    /**
+     * Thrown when a verification or bulk hash cannot be run now because its pool is saturated.
+     */
+    public static class OverloadedException extends RuntimeException {
+        public OverloadedException(String message) {
+            super(message);
+        }
+    }
+
+    private PasswordHasher() {
+        this.cost = calibrate();
+        this.dummyHash = BCrypt.hashpw("dummy-password", BCrypt.gensalt(cost));
+        this.verifiers = new ThreadPoolExecutor(VERIFY_THREADS, VERIFY_THREADS, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(VERIFY_QUEUE), runnable -> {
+                    Thread thread = new Thread(runnable, "password-verify");
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        this.hashers = new ThreadPoolExecutor(HASH_THREADS, HASH_THREADS, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(HASH_QUEUE), runnable -> {
+                    Thread thread = new Thread(runnable, "password-hash");
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        System.out.println("Password hashing calibrated to bcrypt cost " + cost
+                + " (" + VERIFY_THREADS + " verify threads, queue " + VERIFY_QUEUE
+                + "; " + HASH_THREADS + " hash threads, queue " + HASH_QUEUE + ")");
+    }
+
+    /**
+     * Returns the instance-wide hasher, calibrating it on first use.
+     * @return Shared hasher
+     */
+    public static PasswordHasher getInstance() {
+        if (instance == null) {
+            synchronized (PasswordHasher.class) {
+                if (instance == null) {
+                    instance = new PasswordHasher();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Hashes a password at the calibrated cost, on the calling thread.
+     * @param password Plaintext password
+     * @return bcrypt hash
+     */
+    public String hash(String password) {
+        return BCrypt.hashpw(password, BCrypt.gensalt(cost));
+    }
+
+    /**
+     * Hashes the passwords of a batch of users on the hashing pool.
+     * Every password is treated as plaintext, even one shaped like a bcrypt hash, so clients
+     * cannot store a hash of their own choosing and bypass the calibrated cost.
+     * @param users Users whose passwords are replaced by their hashes
+     * @throws OverloadedException if the hashing pool is saturated
+     */
+    public void hashPasswords(List<User> users) {
+        hashAll(users, User::getPassword, User::setPassword);
+    }
+
+    /**
+     * Hashes the passwords held by a batch of items on the hashing pool, skipping null values;
+     * every other value is treated as plaintext. The items are split into one slice per hashing thread, so a
+     * batch takes at most HASH_THREADS queue slots however large it is. The caller waits for
+     * the whole batch.
+     * @param items Items holding a password
+     * @param getter Reads an item's password
+     * @param setter Replaces an item's password with its hash
+     * @throws OverloadedException if the hashing pool is saturated; no item is changed then
+     */
+    public <T> void hashAll(List<T> items, Function<T, String> getter, BiConsumer<T, String> setter) {
+        List<T> pending = items.stream()
+                .filter(item -> getter.apply(item) != null)
+                .collect(Collectors.toList());
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        // Hashes are set only once every slice is done, so a shed batch is left untouched
+        String[] hashes = new String[pending.size()];
+        int slices = Math.min(HASH_THREADS, pending.size());
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (int slice = 0; slice < slices; slice++) {
+                int first = slice;
+                futures.add(hashers.submit(() -> {
+                    for (int i = first; i < hashes.length && !Thread.currentThread().isInterrupted(); i += slices) {
+                        hashes[i] = hash(getter.apply(pending.get(i)));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (RejectedExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            throw new OverloadedException("Too many password hashes in progress");
+        } catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while hashing passwords", e);
+        } catch (ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            throw new IllegalStateException("Error hashing passwords: " + e.getCause().getMessage(), e.getCause());
+        }
+
+        for (int i = 0; i < hashes.length; i++) {
+            setter.accept(pending.get(i), hashes[i]);
+        }
+    }
+
+    /**
+     * Hashes a password on the hashing pool without waiting for it.
+     * @param password Plaintext password
+     * @return Future hash; it fails with OverloadedException if the pool is saturated
+     */
+    public CompletableFuture<String> hashInBackground(String password) {
+        try {
+            return CompletableFuture.supplyAsync(() -> hash(password), hashers);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(new OverloadedException("Too many password hashes in progress"));
+        }
+    }
+
+    /**
+     * Checks a password against a stored value on the verification pool.
+     * Stored values that are not bcrypt hashes predate hashing and are compared as plaintext.
+     * @param password Plaintext password from the caller
+     * @param stored Stored hash, or null if no user matched
+     * @return true if the password matches
+     * @throws OverloadedException if the pool is saturated or the check waited too long
+     */
+    public boolean verify(String password, String stored) {
+        if (password == null) {
+            return false;
+        }
+        String target = stored != null ? stored : dummyHash;
+
+        Future<Boolean> result;
+        try {
+            result = verifiers.submit(() -> check(password, target));
+        } catch (RejectedExecutionException e) {
+            throw new OverloadedException("Too many password verifications in progress");
+        }
+
+        try {
+            return result.get(VERIFY_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS) && stored != null;
+        } catch (TimeoutException e) {
+            result.cancel(true);
+            throw new OverloadedException("Password verification timed out");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            // Malformed stored hash
+            System.err.println("Error verifying password: " + e.getCause().getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Tells whether a stored value should be replaced by a fresh hash at the current cost.
+     * @param stored Stored password value
+     * @return true for plaintext values and hashes below the calibrated cost
+     */
+    public boolean needsRehash(String stored) {
+        return !isHash(stored) || Integer.parseInt(stored.substring(4, 6)) < cost;
+    }
+
+    /**
+     * Tells whether a stored value is a bcrypt hash.
+     * @param stored Stored password value
+     * @return true if the value has the bcrypt format
+     */
+    public static boolean isHash(String stored) {
+        return stored != null && stored.length() == 60 && stored.startsWith("$2a$");
+    }
+
+    /**
+     * Stops the verification and hashing pools.
+     */
+    public void shutdown() {
+        verifiers.shutdownNow();
+        hashers.shutdownNow();
+    }
+
+    private static boolean check(String password, String stored) {
+        if (isHash(stored)) {
+            return BCrypt.checkpw(password, stored);
+        }
+        return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8), stored.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Finds the highest cost whose hash time stays within the target.
+     * Times one hash at a cheap cost and doubles it per cost step, as bcrypt does.
+     */
+    private static int calibrate() {
+        int probeCost = 8;
+        // Warm up before timing
+        BCrypt.hashpw("calibration", BCrypt.gensalt(probeCost));
+        long start = System.nanoTime();
+        BCrypt.hashpw("calibration", BCrypt.gensalt(probeCost));
+        double millis = Math.max(0.1, (System.nanoTime() - start) / 1e6);
+
+        int cost = probeCost;
+        while (cost < MAX_COST && millis * 2 <= TARGET_MILLIS) {
+            millis *= 2;
+            cost++;
+        }
+        return Math.max(MIN_COST, cost);
+    }
+}
@@ -2,6 +2,7 @@ package com.spritehealth.utils;
 
 import com.google.cloud.datastore.*;
 
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
@@ -9,12 +10,31 @@ import java.util.UUID;
 /**
  * SessionManager handles creation, retrieval, and deletion of user sessions
  * using Google Cloud Datastore as the backend.
+ * With SESSION_MODE=signed and a SESSION_SIGNING_KEY, sessions are instead stateless
+ * HMAC-signed tokens verified without I/O; logout revokes a token through a revocation
+ * list shared between instances. Datastore sessions issued before switching keep working.
+ * Datastore sessions slide: once a configurable fraction of the idle timeout has passed,
+ * a request extends the expiry through SessionTouchQueue, up to a maximum lifetime.
  */
 public class SessionManager {
     // Datastore kind for storing sessions
     private static final String SESSION_KIND = "UserSession";
     // Session timeout duration (30 minutes in milliseconds)
     private static final int SESSION_TIMEOUT = 30 * 60 * 1000;
+    // Fraction of the timeout after which a request extends the session
+    private static final double REFRESH_FRACTION =
+            Double.parseDouble(System.getenv().getOrDefault("SESSION_REFRESH_FRACTION", "0.5"));
+    // Absolute session lifetime, however active the user is
+    private static final long MAX_SESSION_LIFETIME =
+            Long.parseLong(System.getenv().getOrDefault("SESSION_MAX_LIFETIME_HOURS", "12")) * 60 * 60 * 1000;
+    // Sessions read recently, shared by every SessionManager in this instance. Entries never
+    // outlive the session; a logout on another instance is seen here within the cache TTL.
+    private static final TtlCache<String, CachedSession> SESSION_CACHE = new TtlCache<>(
+            Long.parseLong(System.getenv().getOrDefault("SESSION_CACHE_TTL_SECONDS", "30")) * 1000, 10000);
+    // Session IDs recently found missing or expired, so repeated bad cookies skip Datastore
+    private static final TtlCache<String, Boolean> MISSING_SESSIONS = new TtlCache<>(10 * 1000, 10000);
+    // Token signer when signed sessions are enabled, null otherwise
+    private static final SessionTokens TOKENS = createTokens();
     private final Datastore datastore;
 
     /**
@@ -30,7 +50,8 @@ public class SessionManager {
     }
 
     /**
-     * Creates a new session for a user and stores it in Datastore.
+     * Creates a new session for a user and stores it in Datastore,
+     * or issues a signed token in stateless mode.
      *
      * @param userId    The user's ID.
      * @param userEmail The user's email.
@@ -42,6 +63,11 @@ public class SessionManager {
         long currentTime = System.currentTimeMillis();
         long expiryTime = currentTime + SESSION_TIMEOUT;
 
+        if (TOKENS != null) {
+            // Stateless mode: the session ID doubles as the token ID for revocation
+            return TOKENS.issue(sessionId, userId, userEmail, userName, expiryTime);
+        }
+
         // Create a Datastore key for the session
         Key key = datastore.newKeyFactory().setKind(SESSION_KIND).newKey(sessionId);
         // Build the session entity
@@ -56,11 +82,16 @@ public class SessionManager {
         // Store the session in Datastore
         datastore.put(session);
         System.out.println("Session stored in Datastore: " + sessionId);
+
+        MISSING_SESSIONS.invalidate(sessionId);
+        SESSION_CACHE.put(sessionId, new CachedSession(toSessionData(session), currentTime, expiryTime),
+                expiryTime - currentTime);
         return sessionId;
     }
 
     /**
-     * Retrieves a session from Datastore by session ID.
+     * Retrieves a session by session ID, from the in-process cache when possible
+     * and from Datastore otherwise.
      * If the session is expired or not found, returns null.
      *
      * @param sessionId The session ID.
@@ -70,6 +101,18 @@ public class SessionManager {
         if (sessionId == null || sessionId.isEmpty()) {
             return null;
         }
+        if (SessionTokens.isToken(sessionId)) {
+            return getTokenSession(sessionId);
+        }
+
+        CachedSession cached = SESSION_CACHE.get(sessionId);
+        if (cached != null) {
+            slide(sessionId, cached);
+            return new HashMap<>(cached.data);
+        }
+        if (MISSING_SESSIONS.get(sessionId) != null) {
+            return null;
+        }
 
         try {
             // Build the key and fetch the session entity
@@ -78,6 +121,7 @@ public class SessionManager {
 
             if (session == null) {
                 System.out.println("Session not found: " + sessionId);
+                MISSING_SESSIONS.put(sessionId, Boolean.TRUE);
                 return null;
             }
 
@@ -90,13 +134,12 @@ public class SessionManager {
             }
 
             // Populate session data into a map
-            Map<String, Object> sessionData = new HashMap<>();
-            sessionData.put("userId", session.getLong("userId"));
-            sessionData.put("userEmail", session.getString("userEmail"));
-            sessionData.put("userName", session.getString("userName"));
+            CachedSession loaded = new CachedSession(toSessionData(session), session.getLong("createdAt"), expiryTime);
+            SESSION_CACHE.put(sessionId, loaded, expiryTime - System.currentTimeMillis());
+            slide(sessionId, loaded);
 
             System.out.println("Session retrieved: " + sessionId);
-            return sessionData;
+            return new HashMap<>(loaded.data);
         } catch (Exception e) {
             System.err.println("Error retrieving session: " + e.getMessage());
             return null;
@@ -104,7 +147,7 @@ public class SessionManager {
     }
 
     /**
-     * Deletes a session from Datastore by session ID.
+     * Deletes a session from Datastore by session ID, or revokes it if it is a signed token.
      *
      * @param sessionId The session ID to delete.
      */
@@ -112,6 +155,14 @@ public class SessionManager {
         if (sessionId == null || sessionId.isEmpty()) {
             return;
         }
+        if (SessionTokens.isToken(sessionId)) {
+            revokeToken(sessionId);
+            return;
+        }
+
+        SESSION_CACHE.invalidate(sessionId);
+        MISSING_SESSIONS.put(sessionId, Boolean.TRUE);
+        touchQueue().cancel(sessionId);
 
         try {
             // Build the key and delete the session entity
@@ -122,4 +173,114 @@ public class SessionManager {
             System.err.println("Error deleting session: " + e.getMessage());
         }
     }
+
+    /**
+     * Gets the cookie lifetime matching the longest a session can last.
+     * @return Cookie max age in seconds
+     */
+    public static int getCookieMaxAgeSeconds() {
+        return (int) ((TOKENS != null ? SESSION_TIMEOUT : MAX_SESSION_LIFETIME) / 1000);
+    }
+
+    /**
+     * Queues an expiry extension once enough of the idle timeout has passed, and assumes it
+     * in the cached copy so that further requests before the flush do not queue it again.
+     */
+    private void slide(String sessionId, CachedSession session) {
+        long now = System.currentTimeMillis();
+        long refreshedAt = session.expiryTime - SESSION_TIMEOUT;
+        long expiryTime = Math.min(now + SESSION_TIMEOUT, session.createdAt + MAX_SESSION_LIFETIME);
+        if (now - refreshedAt < REFRESH_FRACTION * SESSION_TIMEOUT || expiryTime <= session.expiryTime) {
+            return;
+        }
+        touchQueue().touch(sessionId);
+        SESSION_CACHE.put(sessionId, new CachedSession(session.data, session.createdAt, expiryTime),
+                expiryTime - now);
+    }
+
+    private SessionTouchQueue touchQueue() {
+        return SessionTouchQueue.getInstance(datastore, SESSION_KIND, SESSION_TIMEOUT, MAX_SESSION_LIFETIME);
+    }
+
+    /**
+     * Verifies a signed token locally and checks it against the revocation list.
+     */
+    private Map<String, Object> getTokenSession(String token) {
+        if (TOKENS == null) {
+            return null;
+        }
+        SessionTokens.Claims claims = TOKENS.verify(token);
+        if (claims == null || revocations().isRevoked(claims.getTokenId())) {
+            return null;
+        }
+        Map<String, Object> sessionData = new HashMap<>();
+        sessionData.put("userId", claims.getUserId());
+        sessionData.put("userEmail", claims.getUserEmail());
+        sessionData.put("userName", claims.getUserName());
+        return sessionData;
+    }
+
+    private void revokeToken(String token) {
+        if (TOKENS == null) {
+            return;
+        }
+        SessionTokens.Claims claims = TOKENS.verify(token);
+        if (claims == null) {
+            // Forged or already expired; nothing to revoke
+            return;
+        }
+        try {
+            revocations().revoke(claims.getTokenId(), claims.getExpiryTime());
+            System.out.println("Session token revoked: " + claims.getTokenId());
+        } catch (Exception e) {
+            System.err.println("Error revoking session token: " + e.getMessage());
+        }
+    }
+
+    private SessionRevocationList revocations() {
+        return SessionRevocationList.getInstance(datastore, SESSION_TIMEOUT);
+    }
+
+    /**
+     * Creates the token signer if signed sessions are configured.
+     * A missing or short key falls back to Datastore sessions rather than failing startup.
+     */
+    private static SessionTokens createTokens() {
+        if (!"signed".equals(System.getenv("SESSION_MODE"))) {
+            return null;
+        }
+        String secret = System.getenv("SESSION_SIGNING_KEY");
+        if (secret == null || secret.length() < 32) {
+            System.err.println("SESSION_MODE=signed requires a SESSION_SIGNING_KEY of at least 32 characters;"
+                    + " using Datastore sessions");
+            return null;
+        }
+        return new SessionTokens(secret.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Extracts the fields exposed to callers from a session entity.
+     */
+    private static Map<String, Object> toSessionData(Entity session) {
+        Map<String, Object> sessionData = new HashMap<>();
+        sessionData.put("userId", session.getLong("userId"));
+        sessionData.put("userEmail", session.getString("userEmail"));
+        sessionData.put("userName", session.getString("userName"));
+        return sessionData;
+    }
+
+    /**
+     * Session data held in the in-process cache with the times needed for sliding expiry.
+     */
+    private static class CachedSession {
+        private final Map<String, Object> data;
+        private final long createdAt;
+        private final long expiryTime;
+
+        CachedSession(Map<String, Object> data, long createdAt, long expiryTime) {
+            this.data = data;
+            this.createdAt = createdAt;
+            this.expiryTime = expiryTime;
+        }
+    }
 }
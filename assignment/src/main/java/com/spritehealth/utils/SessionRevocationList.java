@@ -0,0 +1,112 @@
+package com.spritehealth.utils;
+
+import com.google.cloud.datastore.Datastore;
+import com.google.cloud.datastore.Entity;
+import com.google.cloud.datastore.Key;
+import com.google.cloud.datastore.Query;
+import com.google.cloud.datastore.QueryResults;
+import com.google.cloud.datastore.StructuredQuery;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * IDs of signed session tokens revoked by logout before they expired.
+ * Revocations are written to Datastore and kept in memory as token ID to expiry time;
+ * a background task pulls revocations made on other instances every few seconds and
+ * drops entries whose tokens have expired anyway, so the list stays small.
+ */
+public class SessionRevocationList {
+    // Datastore kind for revoked token IDs
+    private static final String KIND = "RevokedSession";
+    // How often revocations from other instances are pulled
+    private static final long SYNC_INTERVAL_MILLIS =
+            Long.parseLong(System.getenv().getOrDefault("SESSION_REVOCATION_SYNC_SECONDS", "15")) * 1000;
+    // Re-read window overlapping the previous sync, allowing for clock skew between instances
+    private static final long SYNC_OVERLAP_MILLIS = 60 * 1000;
+
+    private static volatile SessionRevocationList instance;
+
+    private final Datastore datastore;
+    // Revoked token ID to the token's expiry time
+    private final Map<String, Long> revoked = new ConcurrentHashMap<>();
+    private volatile long lastSyncAt;
+
+    private SessionRevocationList(Datastore datastore, long maxTokenLifetimeMillis) {
+        this.datastore = datastore;
+        // Tokens revoked before this point have expired, so they need not be loaded
+        this.lastSyncAt = System.currentTimeMillis() - maxTokenLifetimeMillis;
+        sync();
+
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "session-revocation-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::sync, SYNC_INTERVAL_MILLIS, SYNC_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the instance-wide list, loading it and starting its sync task on first use.
+     * @param datastore Datastore holding revocations
+     * @param maxTokenLifetimeMillis Longest lifetime of a token
+     * @return Shared revocation list
+     */
+    public static SessionRevocationList getInstance(Datastore datastore, long maxTokenLifetimeMillis) {
+        if (instance == null) {
+            synchronized (SessionRevocationList.class) {
+                if (instance == null) {
+                    instance = new SessionRevocationList(datastore, maxTokenLifetimeMillis);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Revokes a token on this instance immediately and on others at their next sync.
+     * @param tokenId Token ID
+     * @param expiryTime Token expiry; the revocation is forgotten after it
+     */
+    public void revoke(String tokenId, long expiryTime) {
+        revoked.put(tokenId, expiryTime);
+        Key key = datastore.newKeyFactory().setKind(KIND).newKey(tokenId);
+        datastore.put(Entity.newBuilder(key)
+                .set("expiryTime", expiryTime)
+                .set("revokedAt", System.currentTimeMillis())
+                .build());
+    }
+
+    /**
+     * @param tokenId Token ID
+     * @return true if the token was revoked
+     */
+    public boolean isRevoked(String tokenId) {
+        return revoked.containsKey(tokenId);
+    }
+
+    /**
+     * Pulls revocations made since the last sync and prunes expired ones.
+     */
+    private void sync() {
+        long startedAt = System.currentTimeMillis();
+        try {
+            QueryResults<Entity> results = datastore.run(Query.newEntityQueryBuilder()
+                    .setKind(KIND)
+                    .setFilter(StructuredQuery.PropertyFilter.ge("revokedAt", lastSyncAt - SYNC_OVERLAP_MILLIS))
+                    .build());
+            while (results.hasNext()) {
+                Entity entity = results.next();
+                revoked.put(entity.getKey().getName(), entity.getLong("expiryTime"));
+            }
+            lastSyncAt = startedAt;
+        } catch (Exception e) {
+            // Retried on the next run from the same point
+            System.err.println("Error syncing session revocations: " + e.getMessage());
+        }
+        revoked.values().removeIf(expiryTime -> expiryTime < startedAt);
+    }
+}
@@ -0,0 +1,194 @@
+package com.spritehealth.utils;
+
+import com.google.cloud.datastore.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SessionSweeper periodically deletes expired UserSession entities, and expired
+ * RevokedSession entries, so that session storage tracks active users only.
+ * Each run pages through keys-only queries on expiryTime and deletes each page as one
+ * batch, with a bounded number of batches in flight. A lease entity lets only one
+ * instance sweep at a time; the others skip the run.
+ */
+public class SessionSweeper {
+    // Kinds whose entities carry an expiryTime and can be dropped after it
+    private static final String[] SWEPT_KINDS = {"UserSession", "RevokedSession"};
+    // Datastore kind and name of the lease entity
+    private static final String LEASE_KIND = "SweeperLease";
+    private static final String LEASE_NAME = "session-sweeper";
+    // Time between runs
+    private static final long INTERVAL_MILLIS =
+            Long.parseLong(System.getenv().getOrDefault("SESSION_SWEEP_INTERVAL_MINUTES", "5")) * 60 * 1000;
+    // A run stops at the end of its lease; what is left is swept next time
+    private static final long LEASE_MILLIS = Math.max(60 * 1000, INTERVAL_MILLIS - 60 * 1000);
+    // Keys per query page and per delete batch, the Datastore mutation limit
+    private static final int PAGE_SIZE = 500;
+    // Delete batches in flight at once
+    private static final int DELETE_CONCURRENCY = 4;
+
+    private final Datastore datastore;
+    // Identifies this instance as lease holder
+    private final String holderId = UUID.randomUUID().toString();
+    private ScheduledExecutorService scheduler;
+    private ExecutorService deleters;
+
+    /**
+     * Initializes the Datastore client using the project ID from environment variable,
+     * or a default project ID if not set.
+     */
+    public SessionSweeper() {
+        String projectId = System.getenv("GOOGLE_CLOUD_PROJECT");
+        if (projectId == null || projectId.isEmpty()) {
+            projectId = "api-7355075667102536099-806743";
+        }
+        this.datastore = DatastoreOptions.newBuilder().setProjectId(projectId).build().getService();
+    }
+
+    /**
+     * Starts periodic sweeping. The first run is jittered so instances started together do not all contend.
+     */
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        deleters = Executors.newFixedThreadPool(DELETE_CONCURRENCY, daemon("session-sweeper-delete"));
+        scheduler = Executors.newSingleThreadScheduledExecutor(daemon("session-sweeper"));
+        long initialDelay = ThreadLocalRandom.current().nextLong(INTERVAL_MILLIS);
+        scheduler.scheduleWithFixedDelay(this::sweep, initialDelay, INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops sweeping; an interrupted run resumes on the next start anywhere.
+     */
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            deleters.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Runs one sweep if this instance obtains the lease.
+     * @return Number of entities deleted
+     */
+    public long sweep() {
+        long deadline = acquireLease();
+        if (deadline == 0) {
+            return 0;
+        }
+
+        long deleted = 0;
+        try {
+            for (String kind : SWEPT_KINDS) {
+                deleted += sweepKind(kind, deadline);
+            }
+            if (deleted > 0) {
+                System.out.println("Session sweeper deleted " + deleted + " expired entities");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            System.err.println("Error sweeping sessions: " + e.getMessage());
+        }
+        return deleted;
+    }
+
+    /**
+     * Deletes expired entities of one kind, page by page, until none are left or the lease runs out.
+     */
+    private long sweepKind(String kind, long deadline) throws InterruptedException {
+        long now = System.currentTimeMillis();
+        Semaphore inFlight = new Semaphore(DELETE_CONCURRENCY);
+        AtomicLong deleted = new AtomicLong();
+        Cursor cursor = null;
+
+        while (System.currentTimeMillis() < deadline) {
+            KeyQuery.Builder query = Query.newKeyQueryBuilder()
+                    .setKind(kind)
+                    .setFilter(StructuredQuery.PropertyFilter.lt("expiryTime", now))
+                    .setLimit(PAGE_SIZE);
+            if (cursor != null) {
+                query.setStartCursor(cursor);
+            }
+
+            QueryResults<Key> results = datastore.run(query.build());
+            List<Key> page = new ArrayList<>(PAGE_SIZE);
+            results.forEachRemaining(page::add);
+            if (page.isEmpty()) {
+                break;
+            }
+            cursor = results.getCursorAfter();
+
+            inFlight.acquire();
+            deleters.execute(() -> {
+                try {
+                    datastore.delete(page.toArray(new Key[0]));
+                    deleted.addAndGet(page.size());
+                } catch (Exception e) {
+                    // Left for the next run
+                    System.err.println("Error deleting expired " + kind + " batch: " + e.getMessage());
+                } finally {
+                    inFlight.release();
+                }
+            });
+
+            if (page.size() < PAGE_SIZE) {
+                break;
+            }
+        }
+
+        // Wait for the batches still in flight
+        inFlight.acquire(DELETE_CONCURRENCY);
+        return deleted.get();
+    }
+
+    /**
+     * Takes the sweep lease if it is free, expired or already ours.
+     * @return Lease deadline in epoch millis, or 0 if another instance holds it
+     */
+    private long acquireLease() {
+        Key key = datastore.newKeyFactory().setKind(LEASE_KIND).newKey(LEASE_NAME);
+        Transaction tx = datastore.newTransaction();
+        try {
+            long now = System.currentTimeMillis();
+            Entity lease = tx.get(key);
+            if (lease != null && lease.getLong("expiresAt") > now && !holderId.equals(lease.getString("holder"))) {
+                return 0;
+            }
+            long deadline = now + LEASE_MILLIS;
+            tx.put(Entity.newBuilder(key)
+                    .set("holder", holderId)
+                    .set("expiresAt", deadline)
+                    .build());
+            tx.commit();
+            return deadline;
+        } catch (DatastoreException e) {
+            // Another instance took the lease concurrently
+            return 0;
+        } finally {
+            if (tx.isActive()) {
+                tx.rollback();
+            }
+        }
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,146 @@
+package com.spritehealth.utils;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+
+/**
+ * Issues and verifies stateless session tokens of the form base64url(claims).base64url(HMAC-SHA256).
+ * The claims carry the token ID, user and expiry, so a token is checked with no I/O;
+ * only revocation needs shared state (see SessionRevocationList).
+ */
+public class SessionTokens {
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final SecretKeySpec key;
+    // Mac instances are not thread-safe; one per thread avoids a lookup per request
+    private final ThreadLocal<Mac> macs;
+
+    /**
+     * @param secret Signing key shared by every instance
+     */
+    public SessionTokens(byte[] secret) {
+        this.key = new SecretKeySpec(secret, ALGORITHM);
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("HMAC-SHA256 unavailable", e);
+            }
+        });
+    }
+
+    /**
+     * Checks whether a session ID is a signed token rather than a Datastore session key.
+     * @param sessionId Cookie value
+     * @return true if it has the token shape
+     */
+    public static boolean isToken(String sessionId) {
+        return sessionId != null && sessionId.indexOf('.') > 0;
+    }
+
+    /**
+     * Issues a signed token.
+     * @param tokenId Unique ID used to revoke the token
+     * @param userId User ID
+     * @param userEmail User email
+     * @param userName User name
+     * @param expiryTime Epoch millis after which the token is rejected
+     * @return Token suitable for a cookie value
+     */
+    public String issue(String tokenId, Long userId, String userEmail, String userName, long expiryTime) {
+        JsonObject claims = new JsonObject();
+        claims.addProperty("jti", tokenId);
+        claims.addProperty("uid", userId);
+        claims.addProperty("email", userEmail);
+        claims.addProperty("name", userName);
+        claims.addProperty("exp", expiryTime);
+
+        String payload = ENCODER.encodeToString(claims.toString().getBytes(StandardCharsets.UTF_8));
+        return payload + "." + ENCODER.encodeToString(sign(payload));
+    }
+
+    /**
+     * Verifies a token's signature and expiry.
+     * @param token Token from the cookie
+     * @return Claims, or null if the token is malformed, forged or expired
+     */
+    public Claims verify(String token) {
+        int dot = token.indexOf('.');
+        if (dot <= 0) {
+            return null;
+        }
+        try {
+            String payload = token.substring(0, dot);
+            byte[] signature = DECODER.decode(token.substring(dot + 1));
+            if (!MessageDigest.isEqual(signature, sign(payload))) {
+                return null;
+            }
+
+            JsonObject json = JsonParser.parseString(new String(DECODER.decode(payload), StandardCharsets.UTF_8))
+                    .getAsJsonObject();
+            Claims claims = new Claims(
+                    json.get("jti").getAsString(),
+                    json.get("uid").getAsLong(),
+                    json.get("email").getAsString(),
+                    json.get("name").getAsString(),
+                    json.get("exp").getAsLong());
+            return System.currentTimeMillis() > claims.getExpiryTime() ? null : claims;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private byte[] sign(String payload) {
+        return macs.get().doFinal(payload.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Verified contents of a token.
+     */
+    public static class Claims {
+        private final String tokenId;
+        private final long userId;
+        private final String userEmail;
+        private final String userName;
+        private final long expiryTime;
+
+        Claims(String tokenId, long userId, String userEmail, String userName, long expiryTime) {
+            this.tokenId = tokenId;
+            this.userId = userId;
+            this.userEmail = userEmail;
+            this.userName = userName;
+            this.expiryTime = expiryTime;
+        }
+
+        public String getTokenId() {
+            return tokenId;
+        }
+
+        public long getUserId() {
+            return userId;
+        }
+
+        public String getUserEmail() {
+            return userEmail;
+        }
+
+        public String getUserName() {
+            return userName;
+        }
+
+        public long getExpiryTime() {
+            return expiryTime;
+        }
+    }
+}
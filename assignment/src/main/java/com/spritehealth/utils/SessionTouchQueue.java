@@ -0,0 +1,137 @@
+package com.spritehealth.utils;
+
+import com.google.cloud.datastore.Datastore;
+import com.google.cloud.datastore.Entity;
+import com.google.cloud.datastore.Key;
+import com.google.cloud.datastore.Transaction;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces session expiry extensions into periodic batch writes.
+ * Requests only mark a session as touched; a background task periodically reads the touched
+ * sessions and writes their new expiry times in one transaction per batch. A session deleted
+ * in the meantime is therefore never recreated, and however many requests touch a session,
+ * it costs at most one write per flush.
+ */
+public class SessionTouchQueue {
+    // How often pending touches are written
+    private static final long FLUSH_INTERVAL_MILLIS =
+            Long.parseLong(System.getenv().getOrDefault("SESSION_TOUCH_FLUSH_SECONDS", "10")) * 1000;
+    // Entities per transaction, within the Datastore mutation limit
+    private static final int BATCH_SIZE = 500;
+
+    private static volatile SessionTouchQueue instance;
+
+    private final Datastore datastore;
+    private final String kind;
+    private final long timeoutMillis;
+    private final long maxLifetimeMillis;
+    // Session IDs touched since the last flush
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    private SessionTouchQueue(Datastore datastore, String kind, long timeoutMillis, long maxLifetimeMillis) {
+        this.datastore = datastore;
+        this.kind = kind;
+        this.timeoutMillis = timeoutMillis;
+        this.maxLifetimeMillis = maxLifetimeMillis;
+
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "session-touch-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the instance-wide queue, starting its flush task on first use.
+     * @param datastore Datastore holding the sessions
+     * @param kind Session entity kind
+     * @param timeoutMillis Idle timeout; a touched session expires this long after the flush
+     * @param maxLifetimeMillis Absolute cap on a session's lifetime from its creation
+     * @return Shared queue
+     */
+    public static SessionTouchQueue getInstance(Datastore datastore, String kind,
+                                                long timeoutMillis, long maxLifetimeMillis) {
+        if (instance == null) {
+            synchronized (SessionTouchQueue.class) {
+                if (instance == null) {
+                    instance = new SessionTouchQueue(datastore, kind, timeoutMillis, maxLifetimeMillis);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Marks a session for an expiry extension at the next flush.
+     * @param sessionId Session ID
+     */
+    public void touch(String sessionId) {
+        pending.add(sessionId);
+    }
+
+    /**
+     * Drops a pending touch, e.g. because the session was deleted.
+     * @param sessionId Session ID
+     */
+    public void cancel(String sessionId) {
+        pending.remove(sessionId);
+    }
+
+    /**
+     * Writes every pending touch, one transaction per batch.
+     * A failed batch is dropped: those sessions keep their current expiry and are touched again
+     * on their next request.
+     */
+    private void flush() {
+        List<Key> batch = new ArrayList<>();
+        for (Iterator<String> it = pending.iterator(); it.hasNext(); ) {
+            batch.add(datastore.newKeyFactory().setKind(kind).newKey(it.next()));
+            it.remove();
+            if (batch.size() == BATCH_SIZE) {
+                writeBatch(batch);
+                batch = new ArrayList<>();
+            }
+        }
+        if (!batch.isEmpty()) {
+            writeBatch(batch);
+        }
+    }
+
+    private void writeBatch(List<Key> keys) {
+        Transaction transaction = datastore.newTransaction();
+        try {
+            long now = System.currentTimeMillis();
+            List<Entity> updated = new ArrayList<>();
+            for (Entity session : transaction.fetch(keys.toArray(new Key[0]))) {
+                if (session == null || session.getLong("expiryTime") < now) {
+                    // Deleted or already expired; must not be revived
+                    continue;
+                }
+                long expiryTime = Math.min(now + timeoutMillis, session.getLong("createdAt") + maxLifetimeMillis);
+                if (expiryTime > session.getLong("expiryTime")) {
+                    updated.add(Entity.newBuilder(session).set("expiryTime", expiryTime).build());
+                }
+            }
+            if (!updated.isEmpty()) {
+                transaction.put(updated.toArray(new Entity[0]));
+            }
+            transaction.commit();
+        } catch (Exception e) {
+            System.err.println("Error extending " + keys.size() + " sessions: " + e.getMessage());
+        } finally {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.spritehealth.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Build-time utility that writes a .gz variant next to each static asset, for CompressionFilter
+ * to serve without compressing per request. Run by the build during prepare-package.
+ */
+public class StaticAssetCompressor {
+    // Asset directories under the webapp root, and the extensions compressed in them
+    private static final String[] ASSET_DIRS = {"js", "css"};
+    private static final String[] EXTENSIONS = {".js", ".css"};
+
+    /**
+     * Main method to compress the static assets.
+     * @param args Webapp source directory and output directory
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: StaticAssetCompressor <webapp dir> <output dir>");
+            System.exit(1);
+        }
+        Path webappDir = Paths.get(args[0]);
+        Path outputDir = Paths.get(args[1]);
+
+        int compressed = 0;
+        for (String dir : ASSET_DIRS) {
+            Path assetDir = webappDir.resolve(dir);
+            if (!Files.isDirectory(assetDir)) {
+                continue;
+            }
+            List<Path> assets;
+            try (Stream<Path> files = Files.walk(assetDir)) {
+                assets = files.filter(StaticAssetCompressor::isAsset).collect(Collectors.toList());
+            }
+            for (Path asset : assets) {
+                Path target = outputDir.resolve(webappDir.relativize(asset) + ".gz");
+                Files.createDirectories(target.getParent());
+                compress(asset, target);
+                compressed++;
+            }
+        }
+        System.out.println("Precompressed " + compressed + " static assets into " + outputDir);
+    }
+
+    private static boolean isAsset(Path path) {
+        String name = path.getFileName().toString();
+        for (String extension : EXTENSIONS) {
+            if (name.endsWith(extension)) {
+                return Files.isRegularFile(path);
+            }
+        }
+        return false;
+    }
+
+    private static void compress(Path source, Path target) throws IOException {
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(target))) {
+            Files.copy(source, out);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.spritehealth.utils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe, lock-free token buckets keyed by caller.
+ * Each bucket holds up to capacity tokens and refills at a steady rate; a request takes one
+ * token or is refused with the time until the next one is available. A bucket is stored as a
+ * single AtomicLong, the time at which it will be full again, and updated with compare-and-set,
+ * so the check costs a map lookup and one CAS. Buckets that have refilled completely carry no
+ * state and are swept once the map grows past MAX_KEYS.
+ */
+public class TokenBucketLimiter {
+    // Number of buckets above which full ones are swept
+    private static final int MAX_KEYS = 10_000;
+
+    private final Map<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    // Time for one token to refill
+    private final long intervalNanos;
+    // Time for an empty bucket to refill completely
+    private final long capacityNanos;
+
+    /**
+     * @param capacity Tokens a bucket holds, i.e. the largest burst allowed
+     * @param perMinute Tokens added to a bucket per minute
+     */
+    public TokenBucketLimiter(int capacity, double perMinute) {
+        if (capacity < 1 || perMinute <= 0) {
+            throw new IllegalArgumentException("Capacity and refill rate must be positive");
+        }
+        this.intervalNanos = (long) (60_000_000_000L / perMinute);
+        this.capacityNanos = intervalNanos * capacity;
+    }
+
+    /**
+     * Takes a token from a caller's bucket.
+     * @param key Caller the bucket belongs to
+     * @return 0 if a token was taken, otherwise nanoseconds until one is available
+     */
+    public long tryAcquire(String key) {
+        AtomicLong bucket = buckets.get(key);
+        if (bucket == null) {
+            if (buckets.size() >= MAX_KEYS) {
+                sweep();
+            }
+            bucket = buckets.computeIfAbsent(key, k -> new AtomicLong(Long.MIN_VALUE));
+        }
+
+        while (true) {
+            long now = System.nanoTime();
+            long fullAt = bucket.get();
+            // A bucket that was full before now is still full
+            long base = fullAt == Long.MIN_VALUE || fullAt - now < 0 ? now : fullAt;
+            long next = base + intervalNanos;
+            long wait = next - now - capacityNanos;
+            if (wait > 0) {
+                return wait;
+            }
+            if (bucket.compareAndSet(fullAt, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Drops buckets that have refilled completely; they are recreated full when next used.
+     * A bucket taken between the check and the removal loses that token's debit, which only
+     * errs towards admitting.
+     */
+    private void sweep() {
+        long now = System.nanoTime();
+        buckets.entrySet().removeIf(entry -> {
+            long fullAt = entry.getValue().get();
+            return fullAt == Long.MIN_VALUE || fullAt - now <= 0;
+        });
+    }
+}
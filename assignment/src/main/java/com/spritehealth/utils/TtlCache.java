@@ -0,0 +1,107 @@
+package com.spritehealth.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded, thread-safe in-process cache whose entries expire after a fixed time to live.
+ * Expired entries are dropped lazily on read. Entries are kept in access order, so when the
+ * cache is full the least recently used one is evicted in constant time, however large the
+ * cache is. Every operation holds the cache's lock only for a map lookup or update.
+ *
+ * @param <K> Key type
+ * @param <V> Value type
+ */
+public class TtlCache<K, V> {
+    // Guarded by itself; access-ordered, so the eldest entry is the least recently used
+    private final Map<K, Entry<V>> entries;
+    private final long ttlMillis;
+
+    /**
+     * @param ttlMillis Time to live of each entry in milliseconds
+     * @param maxEntries Maximum number of entries kept
+     */
+    public TtlCache(long ttlMillis, int maxEntries) {
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached value if present and not expired.
+     * @param key Cache key
+     * @return Cached value, or null on a miss
+     */
+    public V get(K key) {
+        synchronized (entries) {
+            Entry<V> entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expiresAt <= System.currentTimeMillis()) {
+                entries.remove(key);
+                return null;
+            }
+            return entry.value;
+        }
+    }
+
+    /**
+     * Caches a value for the configured time to live.
+     * @param key Cache key
+     * @param value Value to cache
+     */
+    public void put(K key, V value) {
+        put(key, value, ttlMillis);
+    }
+
+    /**
+     * Caches a value for at most the given time, never longer than the configured time to live.
+     * @param key Cache key
+     * @param value Value to cache
+     * @param maxTtlMillis Upper bound on this entry's lifetime, e.g. the time until the value goes stale
+     */
+    public void put(K key, V value, long maxTtlMillis) {
+        long ttl = Math.min(ttlMillis, maxTtlMillis);
+        if (ttl <= 0) {
+            return;
+        }
+        Entry<V> entry = new Entry<>(value, System.currentTimeMillis() + ttl);
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+    }
+
+    /**
+     * Removes a single entry.
+     * @param key Cache key
+     */
+    public void invalidate(K key) {
+        synchronized (entries) {
+            entries.remove(key);
+        }
+    }
+
+    /**
+     * Removes every entry.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final long expiresAt;
+
+        Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
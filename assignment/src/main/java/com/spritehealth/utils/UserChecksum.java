@@ -0,0 +1,61 @@
+package com.spritehealth.utils;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.spritehealth.models.User;
+
+import java.nio.charset.StandardCharsets;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Row fingerprints used to reconcile Datastore with BigQuery.
+ * A user is serialized to a canonical string and hashed with FarmHash Fingerprint64,
+ * which is the function behind BigQuery's FARM_FINGERPRINT, so the Java and SQL
+ * fingerprints of the same row are identical.
+ */
+public class UserChecksum {
+    // Separates fields in the canonical string; cannot occur in user input from forms or spreadsheets
+    private static final String SEPARATOR = "\u001f";
+    private static final HashFunction FINGERPRINT = Hashing.farmHashFingerprint64();
+
+    private UserChecksum() {
+    }
+
+    /**
+     * Computes the fingerprint of a user as read from Datastore.
+     * @param user User to fingerprint
+     * @return 64-bit fingerprint
+     */
+    public static long fingerprint(User user) {
+        String canonical = String.join(SEPARATOR,
+                String.valueOf(user.getId()),
+                nullToEmpty(user.getName()),
+                user.getDateOfBirth() != null ? user.getDateOfBirth().format(DateTimeFormatter.ISO_LOCAL_DATE) : "",
+                nullToEmpty(user.getEmail()),
+                nullToEmpty(user.getPassword()),
+                nullToEmpty(user.getPhone()),
+                nullToEmpty(user.getGender()),
+                nullToEmpty(user.getAddress()));
+        return FINGERPRINT.hashString(canonical, StandardCharsets.UTF_8).asLong();
+    }
+
+    /**
+     * Builds a BigQuery SQL expression that fingerprints a row of the user table exactly like fingerprint.
+     * @return SQL expression yielding an INT64 fingerprint
+     */
+    public static String fingerprintSql() {
+        String separator = ", '\\x1f', ";
+        return "FARM_FINGERPRINT(CONCAT(CAST(id AS STRING)"
+                + separator + "IFNULL(name, '')"
+                + separator + "IFNULL(CAST(dateOfBirth AS STRING), '')"
+                + separator + "IFNULL(email, '')"
+                + separator + "IFNULL(password, '')"
+                + separator + "IFNULL(phone, '')"
+                + separator + "IFNULL(gender, '')"
+                + separator + "IFNULL(address, '')))";
+    }
+
+    private static String nullToEmpty(String value) {
+        return value != null ? value : "";
+    }
+}
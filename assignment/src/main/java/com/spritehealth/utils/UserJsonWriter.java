@@ -0,0 +1,106 @@
+package com.spritehealth.utils;
+
+import com.google.gson.stream.JsonWriter;
+import com.spritehealth.models.User;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * Writes users to a JsonWriter one at a time, so list responses are streamed to the client
+ * instead of being built in memory first. Passwords are never written.
+ */
+public class UserJsonWriter {
+    // Fields a client may select with fields=; the ID is always written
+    public static final Set<String> PUBLIC_FIELDS =
+            Set.of("name", "email", "phone", "gender", "address", "dateOfBirth");
+    // Users written between explicit flushes
+    private static final int FLUSH_EVERY = 100;
+
+    private UserJsonWriter() {
+    }
+
+    /**
+     * Writes one user as a JSON object without the password.
+     * @param out Writer positioned where a value is expected
+     * @param user User to write
+     * @throws IOException if writing fails
+     */
+    public static void writeUser(JsonWriter out, User user) throws IOException {
+        writeUser(out, user, null);
+    }
+
+    /**
+     * Writes the ID and the selected fields of one user as a JSON object.
+     * @param out Writer positioned where a value is expected
+     * @param user User to write
+     * @param fields Fields to write besides the ID, or null for all public fields
+     * @throws IOException if writing fails
+     */
+    public static void writeUser(JsonWriter out, User user, Set<String> fields) throws IOException {
+        out.beginObject();
+        out.name("id").value(user.getId());
+        if (fields == null || fields.contains("name")) {
+            out.name("name").value(user.getName());
+        }
+        if (fields == null || fields.contains("email")) {
+            out.name("email").value(user.getEmail());
+        }
+        if (fields == null || fields.contains("phone")) {
+            out.name("phone").value(user.getPhone());
+        }
+        if (fields == null || fields.contains("gender")) {
+            out.name("gender").value(user.getGender());
+        }
+        if (fields == null || fields.contains("address")) {
+            out.name("address").value(user.getAddress());
+        }
+        if (fields == null || fields.contains("dateOfBirth")) {
+            out.name("dateOfBirth").value(user.getDateOfBirth() != null ? user.getDateOfBirth().toString() : null);
+        }
+        out.endObject();
+    }
+
+    /**
+     * Writes users as a JSON array as they come off the iterator.
+     * Flushes after the first user, so the client starts receiving data at once, and then
+     * every FLUSH_EVERY users. If the iterator fails, the array is closed before the exception
+     * is rethrown.
+     * @param out Writer positioned where a value is expected
+     * @param users Users to write
+     * @return Number of users written
+     * @throws IOException if writing fails
+     */
+    public static int writeUsers(JsonWriter out, Iterator<User> users) throws IOException {
+        return writeUsers(out, users, null);
+    }
+
+    /**
+     * Writes the ID and the selected fields of each user as a JSON array, as for writeUsers.
+     * @param out Writer positioned where a value is expected
+     * @param users Users to write
+     * @param fields Fields to write besides the ID, or null for all public fields
+     * @return Number of users written
+     * @throws IOException if writing fails
+     */
+    public static int writeUsers(JsonWriter out, Iterator<User> users, Set<String> fields) throws IOException {
+        int count = 0;
+        out.beginArray();
+        try {
+            while (users.hasNext()) {
+                writeUser(out, users.next(), fields);
+                count++;
+                if (count == 1 || count % FLUSH_EVERY == 0) {
+                    out.flush();
+                }
+            }
+        } catch (RuntimeException e) {
+            // The iterator failed between users; close the array so the caller can still finish the document
+            out.endArray();
+            throw e;
+        }
+        out.endArray();
+        return count;
+    }
+}
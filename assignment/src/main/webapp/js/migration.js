@@ -5,6 +5,10 @@ import { logout, requireAuth } from './auth.js';
 
 // Array to hold users that need to be migrated
 let usersToMigrate = [];
+// Interval between job status polls in milliseconds
+const POLL_INTERVAL_MS = 2000;
+// Timer for the running job's status poll
+let pollTimer = null;
 
 // Main entry point: runs when the DOM is fully loaded
 document.addEventListener('DOMContentLoaded', async () => {
@@ -44,6 +48,12 @@ function setupEventListeners() {
     if (migrateBtn) {
         migrateBtn.addEventListener('click', startMigration);
     }
+
+    // Cancel button
+    const cancelBtn = document.getElementById('cancelMigrationBtn');
+    if (cancelBtn) {
+        cancelBtn.addEventListener('click', cancelMigration);
+    }
 }
 
 // Fetch and display the list of users to be migrated
@@ -67,6 +77,11 @@ async function loadMigrationPreview() {
         } else {
             hideEmptyState();
         }
+
+        // Pick up a migration that is already running, e.g. after a page reload
+        if (result.data.activeJob) {
+            trackJob(result.data.activeJob);
+        }
     } else {
         UI.showMessage('message', 'Failed to load migration preview', 'error');
         showEmptyState();
@@ -113,34 +128,112 @@ async function startMigration() {
 
     const migrateBtn = document.getElementById('migrateBtn');
     migrateBtn.disabled = true;
-    UI.showSpinner('spinner');
 
-    // Call the API to start migration
+    // Call the API to start the background migration job
     const result = await API.post('/api/migrate', {});
 
+    if (result.success && result.data.success) {
+        UI.showMessage('message', result.data.message, 'info');
+        trackJob(result.data.job);
+    } else if (result.status === 409 && result.data.job) {
+        // A migration is already running; follow it instead
+        UI.showMessage('message', result.data.message, 'info');
+        trackJob(result.data.job);
+    } else {
+        UI.showMessage('message', result.data?.message || 'Migration failed', 'error');
+        migrateBtn.disabled = false;
+    }
+}
+
+// Show a running job's progress and poll until it finishes
+function trackJob(job) {
+    const migrateBtn = document.getElementById('migrateBtn');
+    const cancelBtn = document.getElementById('cancelMigrationBtn');
+    migrateBtn.disabled = true;
+    cancelBtn.style.display = 'inline-block';
+    cancelBtn.disabled = false;
+    cancelBtn.dataset.jobId = job.id;
+    UI.showSpinner('spinner');
+    renderJobProgress(job);
+
+    clearInterval(pollTimer);
+    pollTimer = setInterval(() => pollJob(job.id), POLL_INTERVAL_MS);
+}
+
+// Fetch the job's status and finish tracking once it leaves RUNNING
+async function pollJob(jobId) {
+    const result = await API.get(`/api/migrate/jobs/${encodeURIComponent(jobId)}`);
+    if (!result.success || !result.data.success) {
+        return;
+    }
+
+    const job = result.data.job;
+    renderJobProgress(job);
+    if (job.status !== 'RUNNING') {
+        finishJob(job);
+    }
+}
+
+// Update the progress line and migrated counter
+function renderJobProgress(job) {
+    const progress = document.getElementById('migrationProgress');
+    if (progress) {
+        progress.style.display = 'block';
+        progress.textContent = `Status: ${job.status} — ${job.migrated || 0} migrated` +
+            (job.failed ? `, ${job.failed} failed` : '');
+    }
+    updateStats(usersToMigrate.length, job.migrated || 0);
+}
+
+// Stop polling and show the job's outcome
+function finishJob(job) {
+    clearInterval(pollTimer);
+    pollTimer = null;
     UI.hideSpinner('spinner');
 
-    if (result.success && result.data.success) {
-        const migratedCount = result.data.migrated || 0;
+    const migrateBtn = document.getElementById('migrateBtn');
+    const cancelBtn = document.getElementById('cancelMigrationBtn');
+    cancelBtn.style.display = 'none';
+
+    if (job.status === 'COMPLETED') {
+        const migratedCount = job.migrated || 0;
         // After migration, usersToMigrate should be empty
         usersToMigrate = [];
         // Update stats: 0 left to migrate, migratedCount migrated
         updateStats(0, migratedCount);
-        UI.showMessage('message', result.data.message, 'success');
+        UI.showMessage('message', job.message, job.failed ? 'error' : 'success');
         // Show results section and hide preview/migrate button
         document.getElementById('migrationPreview').style.display = 'none';
         document.getElementById('migrationResults').style.display = 'block';
-        document.getElementById('migrateBtn').style.display = 'none';
+        migrateBtn.style.display = 'none';
         const successMessage = document.getElementById('successMessage');
         if (successMessage) {
             successMessage.textContent = `Successfully migrated ${migratedCount} users to BigQuery!`;
         }
     } else {
-        UI.showMessage('message', result.data?.message || 'Migration failed', 'error');
+        UI.showMessage('message', job.message || `Migration ${job.status.toLowerCase()}`, 'error');
         migrateBtn.disabled = false;
     }
 }
 
+// Ask the server to cancel the running job; polling picks up the final state
+async function cancelMigration() {
+    const cancelBtn = document.getElementById('cancelMigrationBtn');
+    const jobId = cancelBtn.dataset.jobId;
+    if (!jobId || !confirm('Cancel the running migration?')) {
+        return;
+    }
+
+    cancelBtn.disabled = true;
+    const result = await API.post(`/api/migrate/jobs/${encodeURIComponent(jobId)}/cancel`, {});
+    if (result.success && result.data.success) {
+        UI.showMessage('message', 'Cancelling migration...', 'info');
+    } else {
+        UI.showMessage('message', result.data?.message || 'Failed to cancel migration', 'error');
+        cancelBtn.disabled = false;
+    }
+}
+
 // Update the displayed statistics for users to migrate and migrated users
 function updateStats(totalCount, migratedCount) {
     const datastoreCountEl = document.getElementById('datastoreCount');
@@ -0,0 +1,164 @@
+package com.spritehealth.services.impl;
+
+import com.spritehealth.models.User;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.DateDayVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.VectorUnloader;
+import org.apache.arrow.vector.ipc.WriteChannel;
+import org.apache.arrow.vector.ipc.message.ArrowRecordBatch;
+import org.apache.arrow.vector.ipc.message.MessageSerializer;
+import org.apache.arrow.vector.types.DateUnit;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.FieldType;
+import org.apache.arrow.vector.types.pojo.Schema;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Decodes canned Arrow IPC messages, serialized the same way as the schema and record batches
+ * of a Storage Read session, without contacting BigQuery.
+ */
+class ArrowUserDecoderTest {
+    private static final String[] STRING_COLUMNS = {"name", "email", "phone", "gender", "address"};
+
+    @Test
+    void decodesEveryColumnOfEachRow() throws IOException {
+        Schema schema = userSchema(true);
+        List<User> users = new ArrayList<>();
+        try (ArrowUserDecoder decoder = new ArrowUserDecoder(new ByteArrayInputStream(serialize(schema)))) {
+            int rows = decoder.decode(new ByteArrayInputStream(batch(schema,
+                    new Object[]{1L, "Ada Lovelace", LocalDate.of(1815, 12, 10), "ada@example.com",
+                            "555-0100", "Female", "12 St James's Sq, London, LDN 1"},
+                    new Object[]{2L, "Ünïcødé Name", null, "u@example.com", null, null, null})), users::add);
+
+            assertEquals(2, rows);
+        }
+
+        assertEquals(2, users.size());
+        User ada = users.get(0);
+        assertEquals(1L, ada.getId());
+        assertEquals("Ada Lovelace", ada.getName());
+        assertEquals(LocalDate.of(1815, 12, 10), ada.getDateOfBirth());
+        assertEquals("ada@example.com", ada.getEmail());
+        assertEquals("555-0100", ada.getPhone());
+        assertEquals("Female", ada.getGender());
+        assertEquals("12 St James's Sq, London, LDN 1", ada.getAddress());
+
+        User sparse = users.get(1);
+        assertEquals(2L, sparse.getId());
+        assertEquals("Ünïcødé Name", sparse.getName());
+        assertNull(sparse.getDateOfBirth());
+        assertNull(sparse.getPhone());
+        assertNull(sparse.getGender());
+        assertNull(sparse.getAddress());
+    }
+
+    @Test
+    void reusesVectorsAcrossBatchesOfDifferentSizes() throws IOException {
+        Schema schema = userSchema(true);
+        List<User> users = new ArrayList<>();
+        try (ArrowUserDecoder decoder = new ArrowUserDecoder(new ByteArrayInputStream(serialize(schema)))) {
+            decoder.decode(new ByteArrayInputStream(batch(schema,
+                    new Object[]{10L, "First", null, null, null, null, null},
+                    new Object[]{11L, "Second", null, null, null, null, null},
+                    new Object[]{12L, "Third", null, null, null, null, null})), users::add);
+            int rows = decoder.decode(new ByteArrayInputStream(batch(schema,
+                    new Object[]{13L, "Fourth", LocalDate.of(2000, 1, 1), null, null, null, null})), users::add);
+
+            assertEquals(1, rows);
+        }
+
+        assertEquals(4, users.size());
+        assertEquals(13L, users.get(3).getId());
+        assertEquals("Fourth", users.get(3).getName());
+        assertEquals(LocalDate.of(2000, 1, 1), users.get(3).getDateOfBirth());
+    }
+
+    @Test
+    void leavesColumnsMissingFromTheSchemaUnset() throws IOException {
+        Schema schema = userSchema(false);
+        List<User> users = new ArrayList<>();
+        try (ArrowUserDecoder decoder = new ArrowUserDecoder(new ByteArrayInputStream(serialize(schema)))) {
+            decoder.decode(new ByteArrayInputStream(batch(schema, new Object[]{7L, "Only Name"})), users::add);
+        }
+
+        assertEquals(1, users.size());
+        assertEquals(7L, users.get(0).getId());
+        assertEquals("Only Name", users.get(0).getName());
+        assertNull(users.get(0).getEmail());
+        assertNull(users.get(0).getDateOfBirth());
+    }
+
+    /**
+     * Schema of the selected user columns, or of id and name only.
+     */
+    private static Schema userSchema(boolean allColumns) {
+        List<Field> fields = new ArrayList<>();
+        fields.add(Field.nullable("id", new ArrowType.Int(64, true)));
+        fields.add(Field.nullable("name", ArrowType.Utf8.INSTANCE));
+        if (allColumns) {
+            fields.add(new Field("dateOfBirth", FieldType.nullable(new ArrowType.Date(DateUnit.DAY)), null));
+            for (int i = 1; i < STRING_COLUMNS.length; i++) {
+                fields.add(Field.nullable(STRING_COLUMNS[i], ArrowType.Utf8.INSTANCE));
+            }
+        }
+        return new Schema(fields);
+    }
+
+    private static byte[] serialize(Schema schema) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MessageSerializer.serialize(new WriteChannel(Channels.newChannel(out)), schema);
+        return out.toByteArray();
+    }
+
+    /**
+     * Serializes rows as one record batch message. Values follow the schema's column order:
+     * id, name, then dateOfBirth, email, phone, gender and address when present.
+     */
+    private static byte[] batch(Schema schema, Object[]... rows) throws IOException {
+        try (BufferAllocator allocator = new RootAllocator(Long.MAX_VALUE);
+             VectorSchemaRoot root = VectorSchemaRoot.create(schema, allocator)) {
+            root.allocateNew();
+            for (int row = 0; row < rows.length; row++) {
+                for (int column = 0; column < schema.getFields().size(); column++) {
+                    Object value = rows[row][column];
+                    String name = schema.getFields().get(column).getName();
+                    if (value == null) {
+                        continue;
+                    }
+                    if ("id".equals(name)) {
+                        ((BigIntVector) root.getVector(name)).setSafe(row, (Long) value);
+                    } else if ("dateOfBirth".equals(name)) {
+                        ((DateDayVector) root.getVector(name)).setSafe(row, (int) ((LocalDate) value).toEpochDay());
+                    } else {
+                        ((VarCharVector) root.getVector(name)).setSafe(row,
+                                ((String) value).getBytes(StandardCharsets.UTF_8));
+                    }
+                }
+            }
+            root.setRowCount(rows.length);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (ArrowRecordBatch batch = new VectorUnloader(root).getRecordBatch()) {
+                MessageSerializer.serialize(new WriteChannel(Channels.newChannel(out)), batch);
+            }
+            return out.toByteArray();
+        }
+    }
+}